@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the program and its tests
+mkdir -p $DIR/../classes
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java $DIR/../test/*.java || exit 1
+
+# run every test, they need no database
+for test in MemoryStoreTest SortedIdsTest QueryCacheTest SessionCacheTest; do
+   java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar $test || exit 1
+done
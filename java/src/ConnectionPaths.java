@@ -0,0 +1,131 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.HashSet;
+
+/**
+ * Breadth first searches over accepted connections.  Every level of a
+ * search is expanded with one batched ProfStore.getConnections call.  The
+ * JDBC store sends a frontier in IN lists of up to 500 users, so a level
+ * costs one round trip per 500 frontier users and a search of depth d
+ * costs d round trips only while every frontier stays that small.
+ *
+ */
+public class ConnectionPaths {
+
+   private ConnectionPaths () {
+   }
+
+   /**
+    * Finds a shortest chain of accepted connections between two users.  The
+    * search grows from both ends, always expanding the smaller frontier.
+    *
+    * @param maxDepth the longest path, in connections, worth looking for
+    * @return the logins on the path from user to other, both included, or
+    *         null when they are further apart than maxDepth
+    * @throws java.sql.SQLException when a lookup fails
+    */
+   public static List<String> shortestPath (ProfStore store, String user, String other, int maxDepth) throws SQLException {
+      if (user.equals(other))
+         return new ArrayList<String>(Collections.singletonList(user));
+
+      // parent of every user reached from either end
+      Map<String, String> fromUser = new HashMap<String, String>();
+      Map<String, String> fromOther = new HashMap<String, String>();
+      fromUser.put(user, null);
+      fromOther.put(other, null);
+      Set<String> userFrontier = new HashSet<String>(fromUser.keySet());
+      Set<String> otherFrontier = new HashSet<String>(fromOther.keySet());
+
+      for (int depth = 0; depth < maxDepth; ++depth){
+         boolean forward = userFrontier.size() <= otherFrontier.size();
+         Set<String> frontier = forward ? userFrontier : otherFrontier;
+         Map<String, String> seen = forward ? fromUser : fromOther;
+         Map<String, String> opposite = forward ? fromOther : fromUser;
+
+         Set<String> next = new HashSet<String>();
+         Map<String, List<String>> neighbors = store.getConnections(frontier);
+         for (String from : frontier){
+            for (String to : neighbors.get(from)){
+               if (seen.containsKey(to))
+                  continue;
+               seen.put(to, from);
+               if (opposite.containsKey(to))
+                  return join(to, fromUser, fromOther);
+               next.add(to);
+            }
+         }
+         if (next.isEmpty())
+            return null;
+         if (forward)
+            userFrontier = next;
+         else
+            otherFrontier = next;
+      }
+      return null;
+   }
+
+   /**
+    * Computes the connection distance from one user to each of many, e.g. a
+    * page of search hits, with a single traversal that stops as soon as all
+    * of them are reached.
+    *
+    * @param maxDepth the deepest level to search
+    * @return the distance keyed by login, users further than maxDepth are
+    *         left out
+    * @throws java.sql.SQLException when a lookup fails
+    */
+   public static Map<String, Integer> distances (ProfStore store, String user, Collection<String> others, int maxDepth) throws SQLException {
+      Map<String, Integer> result = new HashMap<String, Integer>();
+      Set<String> wanted = new HashSet<String>(others);
+      if (wanted.remove(user))
+         result.put(user, 0);
+
+      Set<String> seen = new HashSet<String>();
+      seen.add(user);
+      Set<String> frontier = new HashSet<String>(seen);
+      for (int depth = 1; depth <= maxDepth && !wanted.isEmpty() && !frontier.isEmpty(); ++depth){
+         Set<String> next = new HashSet<String>();
+         for (List<String> neighbors : store.getConnections(frontier).values()){
+            for (String to : neighbors){
+               if (!seen.add(to))
+                  continue;
+               if (wanted.remove(to))
+                  result.put(to, depth);
+               next.add(to);
+            }
+         }
+         frontier = next;
+      }
+      return result;
+   }
+
+   private static List<String> join (String meet, Map<String, String> fromUser, Map<String, String> fromOther) {
+      List<String> path = new ArrayList<String>();
+      for (String at = meet; at != null; at = fromUser.get(at))
+         path.add(at);
+      Collections.reverse(path);
+      for (String at = fromOther.get(meet); at != null; at = fromOther.get(at))
+         path.add(at);
+      return path;
+   }
+
+}//end ConnectionPaths
@@ -0,0 +1,352 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams query results to files without holding them in memory.  Rows
+ * are read through a server side cursor and encoded into a reusable
+ * direct buffer that is written to a file channel, optionally gzipped.
+ *
+ * Two formats are supported: CSV as in RFC 4180, and a compact binary
+ * format made of the magic "PNX1" followed by rows, the first holding the
+ * column names.  A row is a 2 byte column count followed, for every
+ * column, by a 4 byte length (-1 for NULL) and that many UTF-8 bytes.
+ * All numbers are big endian.
+ *
+ */
+public class Exporter {
+
+   // rows fetched from the cursor per round trip.
+   private static final int FETCH = 10000;
+
+   // size of the encoding buffer.
+   private static final int BUFFER = 1 << 20;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final ProfNetwork _esql;
+   private final boolean _binary;
+   private final boolean _gzip;
+
+   /**
+    * Creates a new instance of Exporter
+    *
+    * @param esql the ProfNetwork to take connections from
+    * @param binary true for the binary format, false for CSV
+    * @param gzip true to compress every file
+    */
+   public Exporter (ProfNetwork esql, boolean binary, boolean gzip) {
+      this._esql = esql;
+      this._binary = binary;
+      this._gzip = gzip;
+   }//end Exporter
+
+   /**
+    * Exports everything stored about one user: profile, work and education
+    * history, connections and every message they sent or received.
+    *
+    * @return the files written
+    */
+   public List<File> exportUser (String user, File dir) throws SQLException, IOException {
+      String[][] parts = {
+         { "profile", "SELECT userId, email, name, dateOfBirth FROM USR WHERE userId = '%s'" },
+         { "work", "SELECT company, role, location, startDate, endDate FROM WORK_EXPR WHERE userId = '%s' ORDER BY startDate" },
+         { "education", "SELECT instituitionName, major, degree, startdate, enddate FROM EDUCATIONAL_DETAILS WHERE userId = '%s' ORDER BY startdate" },
+         { "connections", "SELECT userId, connectionId, status FROM CONNECTION_USR WHERE userId = '%1$s' OR connectionId = '%1$s'" },
+         { "messages", "SELECT msgId, senderId, receiverId, sendTime, contents, deleteStatus, status FROM MESSAGE WHERE senderId = '%1$s' OR receiverId = '%1$s' ORDER BY msgId" },
+      };
+      dir.mkdirs();
+      List<File> files = new ArrayList<File>();
+      Connection connection = this._esql.openConnection();
+      try{
+         for (String[] part : parts){
+            File file = new File(dir, user + "-" + part[0] + extension());
+            export(connection, String.format(part[1], user), file);
+            files.add(file);
+         }
+      }finally{
+         connection.close();
+      }
+      return files;
+   }
+
+   /**
+    * Exports the whole CONNECTION_USR graph split into partitions by ranges
+    * of userId, each written by its own thread and connection.  Every
+    * partition reads only its own range of the primary key, so the table
+    * is read once whatever the number of partitions.
+    *
+    * @return the files written, one per partition; fewer than asked for
+    *         when the table has too few distinct users to split
+    */
+   public List<File> exportGraph (File dir, int partitions) throws SQLException, IOException {
+      dir.mkdirs();
+      List<String> bounds = splitPoints(partitions);
+      ExecutorService pool = Executors.newFixedThreadPool(bounds.size() + 1);
+      List<Future<File>> parts = new ArrayList<Future<File>>();
+      for (int i = 0; i <= bounds.size(); ++i){
+         String range = "true";
+         if (i > 0)
+            range = "userId >= " + literal(bounds.get(i - 1));
+         if (i < bounds.size())
+            range = (i > 0 ? range + " AND " : "") + "userId < " + literal(bounds.get(i));
+         final String query = String.format(
+            "SELECT userId, connectionId, status FROM CONNECTION_USR WHERE %s ORDER BY userId, connectionId", range);
+         final File file = new File(dir, "connections-" + i + extension());
+         parts.add(pool.submit(new Callable<File>(){
+            public File call () throws Exception {
+               Connection connection = Exporter.this._esql.openConnection();
+               try{
+                  export(connection, query, file);
+               }finally{
+                  connection.close();
+               }
+               return file;
+            }
+         }));
+      }
+      pool.shutdown();
+      List<File> files = new ArrayList<File>();
+      try{
+         for (Future<File> part : parts)
+            files.add(part.get());
+      }catch (InterruptedException e){
+         pool.shutdownNow();
+         Thread.currentThread().interrupt();
+         throw new IOException("export interrupted");
+      }catch (ExecutionException e){
+         pool.shutdownNow();
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         throw new IOException(cause.toString());
+      }
+      return files;
+   }
+
+   /*
+    * Picks up to partitions - 1 userIds that cut CONNECTION_USR into ranges
+    * of about the same number of rows, from the histogram ANALYZE keeps for
+    * the column.  No split points are returned when the histogram is empty,
+    * i.e. the table has only a few distinct users.
+    **/
+   private List<String> splitPoints (int partitions) throws SQLException {
+      List<String> bounds = new ArrayList<String>();
+      Connection connection = this._esql.openConnection();
+      try{
+         Statement stmt = connection.createStatement();
+         // samples the table, much cheaper than reading it
+         stmt.executeUpdate("ANALYZE CONNECTION_USR (userId)");
+         ResultSet rs = stmt.executeQuery(String.format(
+            "SELECT DISTINCT h[1 + (array_length(h, 1) - 1) * k / %1$d] AS bound " +
+            "FROM (SELECT histogram_bounds::text::text[] AS h FROM pg_stats " +
+            "      WHERE schemaname = current_schema() AND tablename = 'connection_usr' AND attname = 'userid') s, generate_series(1, %1$d - 1) k " +
+            "ORDER BY bound", partitions));
+         while (rs.next())
+            bounds.add(rs.getString(1));
+         stmt.close();
+      }finally{
+         connection.close();
+      }
+      return bounds;
+   }
+
+   private static String literal (String value) {
+      return "'" + value.replace("'", "''") + "'";
+   }
+
+   private String extension () {
+      return (this._binary ? ".bin" : ".csv") + (this._gzip ? ".gz" : "");
+   }
+
+   /*
+    * Runs the query through a cursor on the connection and streams every
+    * row to the file.
+    * @return the number of rows written
+    **/
+   private long export (Connection connection, String query, File file) throws SQLException, IOException {
+      long start = System.nanoTime();
+      boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      Statement stmt = connection.createStatement();
+      RowWriter out = new RowWriter(file);
+      long rows = 0;
+      try{
+         stmt.executeUpdate("DECLARE export CURSOR FOR " + query);
+         boolean header = true;
+         while (true){
+            ResultSet rs = stmt.executeQuery("FETCH FORWARD " + FETCH + " FROM export");
+            ResultSetMetaData rsmd = rs.getMetaData();
+            int numCol = rsmd.getColumnCount();
+            String[] row = new String[numCol];
+            if (header){
+               for (int i = 1; i <= numCol; ++i)
+                  row[i - 1] = rsmd.getColumnName(i);
+               out.write(row);
+               header = false;
+            }
+            int fetched = 0;
+            while (rs.next()){
+               for (int i = 1; i <= numCol; ++i)
+                  row[i - 1] = rs.getString(i);
+               out.write(row);
+               ++fetched;
+            }
+            rs.close();
+            rows += fetched;
+            if (fetched < FETCH)
+               break;
+         }
+         stmt.executeUpdate("CLOSE export");
+         connection.commit();
+      }catch (SQLException e){
+         connection.rollback();
+         throw e;
+      }finally{
+         out.close();
+         stmt.close();
+         connection.setAutoCommit(autoCommit);
+      }
+      Metrics.add("export.rows", rows);
+      Metrics.add("export.bytes", file.length());
+      Metrics.time("export.file", System.nanoTime() - start);
+      return rows;
+   }
+
+   /*
+    * Encodes rows into a direct buffer and drains it to a channel whenever
+    * it fills up.
+    **/
+   private class RowWriter {
+
+      private final WritableByteChannel _channel;
+      private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER);
+      private final CharsetEncoder _encoder = UTF8.newEncoder();
+
+      RowWriter (File file) throws IOException {
+         FileOutputStream stream = new FileOutputStream(file);
+         if (Exporter.this._gzip)
+            this._channel = Channels.newChannel(new GZIPOutputStream(stream, 1 << 16));
+         else
+            this._channel = stream.getChannel();
+         if (Exporter.this._binary)
+            this._buffer.put("PNX1".getBytes(UTF8));
+      }
+
+      void write (String[] row) throws IOException {
+         if (Exporter.this._binary){
+            room(2);
+            this._buffer.putShort((short) row.length);
+            for (String field : row){
+               if (field == null){
+                  room(4);
+                  this._buffer.putInt(-1);
+                  continue;
+               }
+               byte[] bytes = field.getBytes(UTF8);
+               room(4);
+               this._buffer.putInt(bytes.length);
+               put(bytes);
+            }
+         }
+         else{
+            for (int i = 0; i < row.length; ++i){
+               if (i > 0)
+                  encode(",");
+               if (row[i] != null)
+                  encode(csv(row[i]));
+            }
+            encode("\r\n");
+         }
+      }
+
+      private void room (int bytes) throws IOException {
+         if (this._buffer.remaining() < bytes)
+            drain();
+      }
+
+      private void put (byte[] bytes) throws IOException {
+         int offset = 0;
+         while (offset < bytes.length){
+            if (!this._buffer.hasRemaining())
+               drain();
+            int n = Math.min(bytes.length - offset, this._buffer.remaining());
+            this._buffer.put(bytes, offset, n);
+            offset += n;
+         }
+      }
+
+      private void encode (String text) throws IOException {
+         CharBuffer chars = CharBuffer.wrap(text);
+         while (true){
+            CoderResult result = this._encoder.encode(chars, this._buffer, true);
+            if (result.isOverflow())
+               drain();
+            else if (result.isUnderflow())
+               break;
+            else
+               result.throwException();
+         }
+      }
+
+      private void drain () throws IOException {
+         this._buffer.flip();
+         while (this._buffer.hasRemaining())
+            this._channel.write(this._buffer);
+         this._buffer.clear();
+      }
+
+      void close () throws IOException {
+         drain();
+         this._channel.close();
+      }
+   }//end RowWriter
+
+   /*
+    * Quotes a CSV field when it holds a separator, quote or line break
+    **/
+   private static String csv (String field) {
+      for (int i = 0; i < field.length(); ++i){
+         char c = field.charAt(i);
+         if (c == ',' || c == '"' || c == '\n' || c == '\r')
+            return "\"" + field.replace("\"", "\"\"") + "\"";
+      }
+      return field;
+   }
+
+}//end Exporter
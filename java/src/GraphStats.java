@@ -0,0 +1,508 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Offline job computing statistics of the accepted connection graph:
+ * degree distribution, connected components, triangles and clustering
+ * coefficients, and the users without any accepted connection.
+ *
+ * FRIENDS already holds every accepted connection in both directions, so
+ * it is read once ordered by its primary key while ids are handed out in
+ * the same order.  The rows then arrive grouped by user with sorted
+ * neighbors and are appended straight into a compressed sparse row
+ * layout: the neighbors of user v are adjacency[offsets[v]..offsets[v+1]).
+ * Nothing else of size proportional to the edges is kept.
+ *
+ * Every edge is then oriented from the end with the lower (degree, id)
+ * to the other one, by moving each user's higher ranked neighbors to the
+ * front of its list in place.  Every edge is kept once that way and no
+ * user keeps more than about sqrt(2 * edges) of them, however many
+ * connections it has.  Components are found with a lock free union-find
+ * over the oriented edges, and every triangle is found exactly once, from
+ * its lowest ranked corner, by intersecting the oriented lists of both
+ * ends of an edge.  The work is split on a fork-join pool over user
+ * ranges, and for triangles over ranges of edges, so the edges of a very
+ * connected user are shared by several tasks too.  Results are written to
+ * the GRAPH_* tables under a new runId.
+ *
+ */
+public class GraphStats {
+
+   // rows fetched from a cursor per round trip.
+   private static final int FETCH = 50000;
+
+   // edges a fork-join task handles before splitting.
+   private static final int GRAIN = 1 << 16;
+
+   // rows per INSERT statement when writing results.
+   private static final int INSERT_ROWS = 1000;
+
+   private final ProfNetwork _esql;
+   private final ForkJoinPool _pool;
+
+   // the graph, user ids are indexes into _names.
+   private String[] _names;
+   private int[] _offsets;
+   private int[] _adjacency;
+
+   // end of the higher ranked neighbors moved to the front of each list,
+   // see Orient: the oriented edges of v are adjacency[offsets[v]..outEnd[v]).
+   private int[] _outEnd;
+   private int _maxOut;
+
+   // union-find parents, roots point to themselves.
+   private AtomicIntegerArray _parent;
+
+   // triangles through each user.
+   private AtomicLongArray _triangles;
+
+   /**
+    * Creates a new instance of GraphStats
+    *
+    * @param esql the ProfNetwork to take connections from
+    * @param threads the parallelism of the computation
+    */
+   public GraphStats (ProfNetwork esql, int threads) {
+      this._esql = esql;
+      this._pool = new ForkJoinPool(threads);
+   }//end GraphStats
+
+   /**
+    * Loads the graph, computes every statistic and stores them.
+    *
+    * @return the runId the results were stored under
+    */
+   public int run () throws SQLException {
+      long start = System.nanoTime();
+      load();
+      Metrics.time("graph.load", System.nanoTime() - start);
+
+      start = System.nanoTime();
+      this._outEnd = new int[users()];
+      this._pool.invoke(new Orient(0, users()));
+      for (int v = 0; v < users(); ++v)
+         this._maxOut = Math.max(this._maxOut, this._outEnd[v] - this._offsets[v]);
+      Metrics.time("graph.orient", System.nanoTime() - start);
+
+      start = System.nanoTime();
+      this._parent = new AtomicIntegerArray(users());
+      for (int v = 0; v < users(); ++v)
+         this._parent.set(v, v);
+      this._pool.invoke(new Components(0, users()));
+      Metrics.time("graph.components", System.nanoTime() - start);
+
+      start = System.nanoTime();
+      this._triangles = new AtomicLongArray(users());
+      this._pool.invoke(new Triangles(0, this._adjacency.length));
+      Metrics.time("graph.triangles", System.nanoTime() - start);
+
+      start = System.nanoTime();
+      int runId = store();
+      Metrics.time("graph.store", System.nanoTime() - start);
+      return runId;
+   }
+
+   public int users () {
+      return this._names.length;
+   }
+
+   /**
+    * @return the number of accepted connections, each counted once
+    */
+   public long edges () {
+      return this._offsets[users()] / 2;
+   }
+
+   public int degree (int v) {
+      return this._offsets[v + 1] - this._offsets[v];
+   }
+
+   /*
+    * Orders users by degree, then id, so every edge has one lower end.
+    **/
+   private boolean ranksAbove (int u, int v) {
+      int du = degree(u), dv = degree(v);
+      return du > dv || du == dv && u > v;
+   }
+
+   /*
+    * Streams USR and FRIENDS through cursors into the CSR arrays.
+    **/
+   private void load () throws SQLException {
+      Connection connection = this._esql.openConnection();
+      try{
+         connection.setAutoCommit(false);
+         Statement stmt = connection.createStatement();
+
+         // both tables are read in the same order, so interned ids sort
+         // like the logins and every neighbor list arrives sorted
+         List<String> names = new ArrayList<String>();
+         Map<String, Integer> ids = new HashMap<String, Integer>();
+         stmt.executeUpdate("DECLARE users CURSOR FOR SELECT userId FROM USR ORDER BY userId");
+         while (true){
+            ResultSet rs = stmt.executeQuery("FETCH FORWARD " + FETCH + " FROM users");
+            int fetched = 0;
+            while (rs.next()){
+               String name = rs.getString(1).trim();
+               ids.put(name, names.size());
+               names.add(name);
+               ++fetched;
+            }
+            rs.close();
+            if (fetched < FETCH)
+               break;
+         }
+         stmt.executeUpdate("CLOSE users");
+         this._names = names.toArray(new String[names.size()]);
+         names = null;
+
+         ResultSet count = stmt.executeQuery("SELECT count(*) FROM FRIENDS");
+         count.next();
+         long rows = count.getLong(1);
+         count.close();
+         if (rows >= Integer.MAX_VALUE)
+            throw new SQLException("FRIENDS has too many rows for one adjacency array: " + rows);
+
+         int n = users();
+         int[] offsets = new int[n + 1];
+         int[] adjacency = new int[(int) rows];
+         int size = 0, current = 0;
+         boolean sorted = true;
+         stmt.executeUpdate("DECLARE edges CURSOR FOR SELECT userId, friendId FROM FRIENDS ORDER BY userId, friendId");
+         while (true){
+            ResultSet rs = stmt.executeQuery("FETCH FORWARD " + FETCH + " FROM edges");
+            int fetched = 0;
+            while (rs.next()){
+               ++fetched;
+               Integer from = ids.get(rs.getString(1).trim());
+               Integer to = ids.get(rs.getString(2).trim());
+               if (from == null || to == null || from.intValue() == to.intValue())
+                  continue;
+               if (from < current){
+                  throw new SQLException("FRIENDS rows are not ordered by userId");
+               }
+               while (current < from)
+                  offsets[++current] = size;
+               if (size > offsets[current] && adjacency[size - 1] >= to)
+                  sorted = false;
+               if (size == adjacency.length)
+                  adjacency = Arrays.copyOf(adjacency, (int) Math.min(Integer.MAX_VALUE - 8, size * 2L + 1));
+               adjacency[size++] = to;
+            }
+            rs.close();
+            Metrics.add("graph.rows", fetched);
+            if (fetched < FETCH)
+               break;
+         }
+         stmt.executeUpdate("CLOSE edges");
+         connection.commit();
+         while (current < n)
+            offsets[++current] = size;
+
+         this._offsets = offsets;
+         this._adjacency = size == adjacency.length ? adjacency : Arrays.copyOf(adjacency, size);
+         if (!sorted){
+            // the database collation disagreed with itself, fall back to sorting
+            this._pool.invoke(new SortNeighbors(0, n));
+         }
+      }catch (SQLException e){
+         connection.rollback();
+         throw e;
+      }finally{
+         connection.close();
+      }
+   }
+
+   /*
+    * Writes the results in one transaction.
+    * @return the new runId
+    **/
+   private int store () throws SQLException {
+      int n = users();
+      Map<Integer, Integer> degrees = new TreeMap<Integer, Integer>();
+      int[] componentSize = new int[n];
+      List<String> isolated = new ArrayList<String>();
+      long triangles = 0, triples = 0;
+      double clustering = 0;
+      for (int v = 0; v < n; ++v){
+         int d = degree(v);
+         Integer users = degrees.get(d);
+         degrees.put(d, users == null ? 1 : users + 1);
+         if (d == 0)
+            isolated.add(this._names[v]);
+         ++componentSize[find(v)];
+         triangles += this._triangles.get(v);
+         long pairs = (long) d * (d - 1) / 2;
+         triples += pairs;
+         // users with fewer than two connections count as 0
+         if (pairs > 0)
+            clustering += (double) this._triangles.get(v) / pairs;
+      }
+      Map<Integer, Integer> components = new TreeMap<Integer, Integer>();
+      int largest = 0, count = 0;
+      for (int v = 0; v < n; ++v){
+         int size = componentSize[v];
+         if (size == 0)
+            continue;
+         Integer c = components.get(size);
+         components.put(size, c == null ? 1 : c + 1);
+         largest = Math.max(largest, size);
+         ++count;
+      }
+
+      Connection connection = this._esql.openConnection();
+      try{
+         connection.setAutoCommit(false);
+         Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery(String.format(
+            "INSERT INTO GRAPH_STATS(users, edges, components, largestComponent, isolated, triangles, avgClustering, transitivity) " +
+            "VALUES (%d, %d, %d, %d, %d, %d, %s, %s) RETURNING runId",
+            n, edges(), count, largest, isolated.size(), triangles / 3,
+            Double.toString(n == 0 ? 0 : clustering / n), Double.toString(triples == 0 ? 0 : (double) triangles / triples)));
+         rs.next();
+         int runId = rs.getInt(1);
+         rs.close();
+
+         List<String> rows = new ArrayList<String>();
+         for (Map.Entry<Integer, Integer> degree : degrees.entrySet())
+            rows.add(String.format("(%d, %d, %d)", runId, degree.getKey(), degree.getValue()));
+         insert(stmt, "GRAPH_DEGREES(runId, degree, users)", rows);
+
+         rows.clear();
+         for (Map.Entry<Integer, Integer> size : components.entrySet())
+            rows.add(String.format("(%d, %d, %d)", runId, size.getKey(), size.getValue()));
+         insert(stmt, "GRAPH_COMPONENT_SIZES(runId, size, components)", rows);
+
+         rows.clear();
+         for (String user : isolated)
+            rows.add(String.format("(%d, '%s')", runId, user));
+         insert(stmt, "GRAPH_ISOLATED(runId, userId)", rows);
+
+         connection.commit();
+         Metrics.set("graph.users", n);
+         Metrics.set("graph.edges", edges());
+         Metrics.set("graph.components", count);
+         Metrics.set("graph.isolated", isolated.size());
+         return runId;
+      }catch (SQLException e){
+         connection.rollback();
+         throw e;
+      }finally{
+         connection.close();
+      }
+   }
+
+   private static void insert (Statement stmt, String table, List<String> rows) throws SQLException {
+      for (int i = 0; i < rows.size(); i += INSERT_ROWS){
+         StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" VALUES ");
+         for (int j = i; j < Math.min(rows.size(), i + INSERT_ROWS); ++j){
+            if (j > i)
+               sql.append(", ");
+            sql.append(rows.get(j));
+         }
+         stmt.addBatch(sql.toString());
+      }
+      stmt.executeBatch();
+   }
+
+   private int find (int x) {
+      while (true){
+         int p = this._parent.get(x);
+         if (p == x)
+            return x;
+         int grandparent = this._parent.get(p);
+         // path halving, losing the race only costs a longer walk later
+         if (p != grandparent)
+            this._parent.compareAndSet(x, p, grandparent);
+         x = grandparent;
+      }
+   }
+
+   private void union (int a, int b) {
+      while (true){
+         a = find(a);
+         b = find(b);
+         if (a == b)
+            return;
+         // link the larger root under the smaller, only if it is still a root
+         if (a < b){
+            int swap = a; a = b; b = swap;
+         }
+         if (this._parent.compareAndSet(a, a, b))
+            return;
+      }
+   }
+
+   /*
+    * Base of the tasks below: splits a user range until it covers at most
+    * GRAIN edges, so a few very connected users do not end up in one task.
+    **/
+   @SuppressWarnings("serial")
+   private abstract class UserRange extends RecursiveAction {
+
+      final int from, to;
+
+      UserRange (int from, int to) {
+         this.from = from;
+         this.to = to;
+      }
+
+      abstract UserRange split (int from, int to);
+
+      abstract void compute (int v);
+
+      protected void compute () {
+         if (this.to - this.from > 1 && _offsets[this.to] - _offsets[this.from] > GRAIN){
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(split(this.from, mid), split(mid, this.to));
+            return;
+         }
+         for (int v = this.from; v < this.to; ++v)
+            compute(v);
+      }
+   }//end UserRange
+
+   /*
+    * Moves the neighbors ranked above v to the front of its list, keeping
+    * them sorted.  Only v's own list is written, the other lists are only
+    * used through their length, so users can be oriented in parallel.
+    **/
+   @SuppressWarnings("serial")
+   private class Orient extends UserRange {
+
+      Orient (int from, int to) {
+         super(from, to);
+      }
+
+      UserRange split (int from, int to) {
+         return new Orient(from, to);
+      }
+
+      void compute (int v) {
+         int out = _offsets[v];
+         for (int i = _offsets[v]; i < _offsets[v + 1]; ++i){
+            int u = _adjacency[i];
+            if (ranksAbove(u, v))
+               _adjacency[out++] = u;
+         }
+         _outEnd[v] = out;
+      }
+   }//end Orient
+
+   @SuppressWarnings("serial")
+   private class Components extends UserRange {
+
+      Components (int from, int to) {
+         super(from, to);
+      }
+
+      UserRange split (int from, int to) {
+         return new Components(from, to);
+      }
+
+      void compute (int v) {
+         for (int i = _offsets[v]; i < _outEnd[v]; ++i)
+            union(v, _adjacency[i]);
+      }
+   }//end Components
+
+   /*
+    * Counts the triangles of the oriented edges stored in
+    * adjacency[from..to).  A triangle v, u, w in rank order is only found
+    * from the edge v-u, as w in the oriented lists of both, and is credited
+    * to all three corners.  The range is split by edges rather than users,
+    * so the edges of one user can be shared by several tasks.
+    **/
+   @SuppressWarnings("serial")
+   private class Triangles extends RecursiveAction {
+
+      final int from, to;
+
+      Triangles (int from, int to) {
+         this.from = from;
+         this.to = to;
+      }
+
+      protected void compute () {
+         if (this.to - this.from > GRAIN){
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new Triangles(this.from, mid), new Triangles(mid, this.to));
+            return;
+         }
+         if (this.from == this.to)
+            return;
+         // the user whose list holds position from
+         int v = Arrays.binarySearch(_offsets, this.from);
+         if (v < 0)
+            v = -v - 2;
+         while (_offsets[v + 1] <= this.from)
+            ++v;
+         int[] common = new int[_maxOut];
+         long atV = 0;
+         for (int i = this.from; i < this.to; ++i){
+            if (i >= _offsets[v + 1]){
+               if (atV > 0)
+                  _triangles.addAndGet(v, atV);
+               atV = 0;
+               while (i >= _offsets[v + 1])
+                  ++v;
+            }
+            if (i >= _outEnd[v])
+               continue;
+            int u = _adjacency[i];
+            int n = SortedIds.intersect(_adjacency, _offsets[v], _outEnd[v],
+                                        _adjacency, _offsets[u], _outEnd[u], common);
+            if (n == 0)
+               continue;
+            atV += n;
+            _triangles.addAndGet(u, n);
+            for (int k = 0; k < n; ++k)
+               _triangles.incrementAndGet(common[k]);
+         }
+         if (atV > 0)
+            _triangles.addAndGet(v, atV);
+      }
+   }//end Triangles
+
+   @SuppressWarnings("serial")
+   private class SortNeighbors extends UserRange {
+
+      SortNeighbors (int from, int to) {
+         super(from, to);
+      }
+
+      UserRange split (int from, int to) {
+         return new SortNeighbors(from, to);
+      }
+
+      void compute (int v) {
+         Arrays.sort(_adjacency, _offsets[v], _offsets[v + 1]);
+      }
+   }//end SortNeighbors
+
+}//end GraphStats
@@ -0,0 +1,436 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.HashSet;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * ProfStore implementation that issues SQL against the PostgreSQL schema
+ * through the ProfNetwork query methods.
+ *
+ */
+public class JdbcStore implements ProfStore {
+
+   // most logins sent to the server in a single IN (...) list.
+   private static final int BATCH = 500;
+
+   // how often the listener connection checks for notifications.
+   private static final int LISTEN_INTERVAL = 250;
+
+   // first and longest wait before the listener reconnects after an error.
+   private static final long RETRY_MIN = 1000;
+   private static final long RETRY_MAX = 60000;
+
+   // the object that owns the physical database connection.
+   private ProfNetwork _esql = null;
+
+   // sessions watching a user, fed by the listener thread.
+   private final NotificationHub _hub = new NotificationHub();
+   private Listener _listener = null;
+
+   /**
+    * Creates a new instance of JdbcStore
+    *
+    * @param esql the connected ProfNetwork used to run the SQL
+    */
+   public JdbcStore (ProfNetwork esql) {
+      this._esql = esql;
+   }//end JdbcStore
+
+   public void createUser (String login, String password, String email) throws SQLException {
+      String query = String.format("INSERT INTO USR (userId, password, email) VALUES ('%s','%s','%s')", login, password, email);
+      this._esql.executeUpdate(query);
+   }
+
+   public boolean checkCredentials (String login, String password) throws SQLException {
+      String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", login, password);
+      return this._esql.executeQuery(query) > 0;
+   }
+
+   public boolean userExists (String login) throws SQLException {
+      String query = String.format("SELECT * FROM USR WHERE userId = '%s'", login);
+      return this._esql.executeQuery(query) > 0;
+   }
+
+   public boolean connectionExists (String user, String other) throws SQLException {
+      String query = String.format("SELECT * FROM CONNECTION_USR WHERE (userid = '%s' AND connectionid = '%s') OR (userid = '%s' AND connectionid = '%s')", other, user, user, other);
+      return this._esql.executeQuery(query) > 0;
+   }
+
+   public int numConnections (String user) throws SQLException {
+      String query = String.format("SELECT count(*) FROM FRIENDS WHERE userId = '%s'", user);
+      return Integer.parseInt(this._esql.executeQueryAndReturnResult(query).get(0).get(0));
+   }
+
+   public List<String> getConnections (String user) throws SQLException {
+      List<String> connections = new ArrayList<String>();
+      String query = String.format("SELECT friendId FROM FRIENDS WHERE userId = '%s'", user);
+      for (List<String> connection : this._esql.executeQueryAndReturnResult(query)){
+         connections.add(connection.get(0));
+      }
+      return connections;
+   }
+
+   public Map<String, List<String>> getConnections (Collection<String> users) throws SQLException {
+      Map<String, List<String>> connections = new HashMap<String, List<String>>();
+      Iterator<String> it = users.iterator();
+      while (it.hasNext()){
+         StringBuilder in = new StringBuilder();
+         for (int n = 0; n < BATCH && it.hasNext(); ++n){
+            String user = it.next();
+            if (n > 0)
+               in.append(", ");
+            in.append('\'').append(user).append('\'');
+            connections.put(user, new ArrayList<String>());
+         }
+         String query = String.format("SELECT userId, friendId FROM FRIENDS WHERE userId IN (%s)", in);
+         for (List<String> connection : this._esql.executeQueryAndReturnResult(query)){
+            connections.get(connection.get(0)).add(connection.get(1));
+         }
+      }
+      return connections;
+   }
+
+   public List<String> mutualConnections (String user, String other) throws SQLException {
+      List<String> mutual = new ArrayList<String>();
+      String query = String.format("SELECT a.friendId FROM FRIENDS a JOIN FRIENDS b ON b.userId = '%s' AND b.friendId = a.friendId WHERE a.userId = '%s' ORDER BY a.friendId", other, user);
+      for (List<String> connection : this._esql.executeQueryAndReturnResult(query)){
+         mutual.add(connection.get(0));
+      }
+      return mutual;
+   }
+
+   public Map<String, Integer> mutualConnectionCounts (String user, List<String> others) throws SQLException {
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      if (others.isEmpty())
+         return counts;
+      StringBuilder in = new StringBuilder();
+      for (String other : others){
+         if (in.length() > 0)
+            in.append(", ");
+         in.append('\'').append(other).append('\'');
+         counts.put(other, 0);
+      }
+      String query = String.format("SELECT b.userId, count(*) FROM FRIENDS a JOIN FRIENDS b ON b.friendId = a.friendId WHERE a.userId = '%s' AND b.userId IN (%s) GROUP BY b.userId", user, in);
+      for (List<String> count : this._esql.executeQueryAndReturnResult(query)){
+         counts.put(count.get(0), Integer.valueOf(count.get(1)));
+      }
+      return counts;
+   }
+
+   public void sendRequest (String user, String other) throws SQLException {
+      String query = String.format("INSERT INTO CONNECTION_USR(userid, connectionid, status) VALUES ('%s', '%s', 0)", user, other);
+      this._esql.executeUpdate(query);
+   }
+
+   /**
+    * Like sendRequest, but leaves a request that is already there alone, so
+    * ShardedStore can resend a request one shard did not commit.
+    *
+    * @return true when the request was inserted
+    */
+   boolean sendRequestIfMissing (String user, String other) throws SQLException {
+      String query = String.format("INSERT INTO CONNECTION_USR(userid, connectionid, status) SELECT '%s', '%s', 0 WHERE NOT EXISTS (SELECT 1 FROM CONNECTION_USR WHERE userid = '%s' AND connectionid = '%s')", user, other, user, other);
+      return this._esql.executeUpdate(query) > 0;
+   }
+
+   public List<String> pendingRequests (String user) throws SQLException {
+      List<String> requests = new ArrayList<String>();
+      String query = String.format("SELECT userid FROM CONNECTION_USR WHERE connectionid = '%s' AND status = 0", user);
+      for (List<String> request : this._esql.executeQueryAndReturnResult(query)){
+         requests.add(request.get(0));
+      }
+      return requests;
+   }
+
+   public void acceptRequest (String user, String friend) throws SQLException {
+      String query = String.format("UPDATE CONNECTION_USR SET status = 1 WHERE userid = '%s' AND connectionid = '%s' AND status = 0", friend, user);
+      this._esql.executeUpdate(query);
+   }
+
+   public void denyRequest (String user, String friend) throws SQLException {
+      String query = String.format("UPDATE CONNECTION_USR SET status = 2 WHERE userid = '%s' AND connectionid = '%s' AND status = 0", friend, user);
+      this._esql.executeUpdate(query);
+   }
+
+   public void sendMessage (String sender, String receiver, String contents) throws SQLException {
+      String query = String.format("INSERT INTO message(senderid, receiverid, contents, deletestatus, status) VALUES('%s', '%s', '%s', 0, 0)", sender, receiver, contents);
+      this._esql.executeUpdate(query);
+   }
+
+   public List<List<String>> inbox (String user) throws SQLException {
+      return inboxSince(user, 0);
+   }
+
+   public List<List<String>> inboxSince (String user, int afterMsgId) throws SQLException {
+      String query = String.format("SELECT msgid, senderid, contents, deletestatus FROM message WHERE receiverid = '%s' AND msgid > %d ORDER BY msgid", user, afterMsgId);
+      return this._esql.executeQueryAndReturnResult(query);
+   }
+
+   public List<List<String>> searchMessages (String user, String terms, int limit, int offset) throws SQLException {
+      List<List<String>> results = rankedSearch(user, terms, limit, offset);
+      for (List<String> result : results)
+         result.remove(result.size() - 1);
+      return results;
+   }
+
+   /**
+    * Like searchMessages with the rank appended to every record, for
+    * merging the results of several databases.
+    */
+   List<List<String>> rankedSearch (String user, String terms, int limit, int offset) throws SQLException {
+      // the terms are free text, unlike the logins used everywhere else
+      terms = terms.replace("'", "''");
+      // one branch per side so each can use its (user, contents_tsv) index
+      String query = String.format(
+         "WITH q AS (SELECT plainto_tsquery('english', '%s') AS q) " +
+         "SELECT msgid, senderid, receiverid, sendtime, contents, rank FROM (" +
+         "SELECT msgid, senderid, receiverid, sendtime, contents, ts_rank(contents_tsv, q.q) AS rank FROM MESSAGE m, q WHERE receiverId = '%s' AND deleteStatus = 0 AND contents_tsv @@ q.q " +
+         "UNION " +
+         "SELECT msgid, senderid, receiverid, sendtime, contents, ts_rank(contents_tsv, q.q) AS rank FROM MESSAGE m, q WHERE senderId = '%s' AND status = 0 AND contents_tsv @@ q.q" +
+         ") hits ORDER BY rank DESC, msgid DESC LIMIT %d OFFSET %d", terms, user, user, limit, offset);
+      return this._esql.executeQueryAndReturnResult(query);
+   }
+
+   public List<List<String>> conversation (String user, String other, String beforeTime, int beforeMsgId, int limit) throws SQLException {
+      // the pair and the keyset match message_conversation_idx column for column
+      String before = beforeTime == null ? "" :
+         String.format("AND (sendTime, msgId) < ('%s', %d) ", beforeTime, beforeMsgId);
+      String query = String.format(
+         "SELECT msgid, senderid, receiverid, sendtime, contents FROM MESSAGE " +
+         "WHERE least(senderId, receiverId) = least('%s', '%s') AND greatest(senderId, receiverId) = greatest('%s', '%s') %s" +
+         "AND ((receiverId = '%s' AND deleteStatus = 0) OR (senderId = '%s' AND status = 0)) " +
+         "ORDER BY least(senderId, receiverId) DESC, greatest(senderId, receiverId) DESC, sendTime DESC, msgId DESC LIMIT %d",
+         user, other, user, other, before, user, user, limit);
+      return this._esql.executeQueryAndReturnResult(query);
+   }
+
+   public void deleteMessage (String user, String msgId) throws SQLException {
+      String query = String.format("UPDATE message SET deletestatus = 1 WHERE msgid = '%s' AND receiverid = '%s'", msgId, user);
+      this._esql.executeUpdate(query);
+   }
+
+   public void deleteSentMessage (String user, String receiver, String msgId) throws SQLException {
+      String query = String.format("UPDATE message SET status = 1 WHERE msgid = '%s' AND senderid = '%s' AND receiverid = '%s'", msgId, user, receiver);
+      this._esql.executeUpdate(query);
+   }
+
+   public int profileVersion (String user) throws SQLException {
+      String query = String.format("SELECT version FROM USR WHERE userId = '%s'", user);
+      List<List<String>> result = this._esql.executeQueryAndReturnResult(query);
+      if (result.isEmpty())
+         throw new SQLException("ERROR: user " + user + " does not exist");
+      return Integer.parseInt(result.get(0).get(0));
+   }
+
+   public void commitProfile (ProfileEdit edit) throws SQLException {
+      String user = edit.user();
+
+      // the version check doubles as the row lock for the whole profile
+      StringBuilder set = new StringBuilder();
+      for (Map.Entry<String, String> field : edit.fields().entrySet()){
+         set.append(field.getKey()).append(" = ").append(literal(field.getValue())).append(", ");
+      }
+      set.append("version = version + 1");
+      String check = String.format("UPDATE USR SET %s WHERE userId = '%s' AND version = %d", set, user, edit.version());
+
+      List<String> batch = new ArrayList<String>();
+      for (List<String> w : edit.work()){
+         String key = String.format("userId = '%s' AND company = %s AND role = %s AND startDate = %s", user, literal(w.get(0)), literal(w.get(1)), literal(w.get(3)));
+         batch.add(String.format("UPDATE WORK_EXPR SET location = %s, endDate = %s WHERE %s", literal(w.get(2)), literal(w.get(4)), key));
+         batch.add(String.format("INSERT INTO WORK_EXPR(userId, company, role, location, startDate, endDate) SELECT '%s', %s, %s, %s, %s, %s WHERE NOT EXISTS (SELECT 1 FROM WORK_EXPR WHERE %s)",
+                                 user, literal(w.get(0)), literal(w.get(1)), literal(w.get(2)), literal(w.get(3)), literal(w.get(4)), key));
+      }
+      for (List<String> e : edit.education()){
+         String key = String.format("userId = '%s' AND major = %s AND degree = %s", user, literal(e.get(1)), literal(e.get(2)));
+         batch.add(String.format("UPDATE EDUCATIONAL_DETAILS SET instituitionName = %s, startdate = %s, enddate = %s WHERE %s", literal(e.get(0)), literal(e.get(3)), literal(e.get(4)), key));
+         batch.add(String.format("INSERT INTO EDUCATIONAL_DETAILS(userId, instituitionName, major, degree, startdate, enddate) SELECT '%s', %s, %s, %s, %s, %s WHERE NOT EXISTS (SELECT 1 FROM EDUCATIONAL_DETAILS WHERE %s)",
+                                 user, literal(e.get(0)), literal(e.get(1)), literal(e.get(2)), literal(e.get(3)), literal(e.get(4)), key));
+      }
+
+      this._esql.beginTransaction();
+      try{
+         if (this._esql.executeUpdate(check) != 1)
+            throw new SQLException("ERROR: " + user + "'s profile was changed by another session", "40001");
+         if (!batch.isEmpty())
+            this._esql.executeBatch(batch);
+         this._esql.commit();
+      }catch (SQLException e){
+         this._esql.rollback();
+         throw e;
+      }
+   }
+
+   private static String literal (String value) {
+      // profile fields are free text, unlike the logins used everywhere else
+      return value == null ? "NULL" : "'" + value.replace("'", "''") + "'";
+   }
+
+   public List<List<String>> educationHistory (String user) throws SQLException {
+      String query = String.format("SELECT instituitionname, major, degree, startdate, enddate FROM educational_details WHERE userid = '%s'", user);
+      return this._esql.executeQueryAndReturnResult(query);
+   }
+
+   public List<List<String>> workHistory (String user) throws SQLException {
+      String query = String.format("SELECT company, role, location, startdate, enddate FROM work_expr WHERE userid = '%s'", user);
+      return this._esql.executeQueryAndReturnResult(query);
+   }
+
+   public synchronized void watch (String user, StoreListener listener) throws SQLException {
+      this._hub.add(user, listener);
+      if (this._listener == null){
+         this._listener = new Listener(this._esql.openConnection());
+         this._listener.start();
+      }
+   }
+
+   public void unwatch (String user, StoreListener listener) {
+      this._hub.remove(user, listener);
+   }
+
+   public synchronized void close () {
+      // the physical connection is closed by ProfNetwork.cleanup
+      if (this._listener != null){
+         this._listener.interrupt();
+         this._listener = null;
+      }
+   }
+
+   /*
+    * The triggers in create_triggers.sql raise NOTIFY on msg_<receiverId>
+    * and req_<connectionId>.  This thread keeps one LISTEN per watched user
+    * on its own connection and hands every notification to the hub.  The
+    * driver only reads notifications while running a statement, so the
+    * thread issues a trivial SELECT every LISTEN_INTERVAL instead of every
+    * session rerunning its inbox and request queries.  When the connection
+    * fails the thread reconnects, waiting longer after every failed try up
+    * to RETRY_MAX, and has every session reread once it listens again
+    * since events may have been missed.
+    **/
+   private class Listener extends Thread {
+
+      private Connection _connection;
+      private final Set<String> _listening = new HashSet<String>();
+
+      Listener (Connection connection) {
+         super("ProfNetwork listener");
+         setDaemon(true);
+         this._connection = connection;
+      }
+
+      public void run () {
+         long retry = RETRY_MIN;
+         boolean missed = false;
+         try{
+            while (!isInterrupted()){
+               try{
+                  if (this._connection == null)
+                     this._connection = JdbcStore.this._esql.openConnection();
+                  listen(missed);
+               }catch (SQLException e){
+                  System.err.println("Notification listener failed, reconnecting in " + retry / 1000 + "s: " + e.getMessage());
+                  Metrics.increment("listener.failures");
+                  closeConnection();
+                  missed = true;
+                  Thread.sleep(retry);
+                  retry = Math.min(retry * 2, RETRY_MAX);
+                  continue;
+               }
+               retry = RETRY_MIN;
+            }
+         }catch (InterruptedException e){
+            // closing.
+         }finally{
+            closeConnection();
+         }
+      }
+
+      /*
+       * Polls for notifications until interrupted or the connection fails.
+       **/
+      private void listen (boolean missed) throws SQLException, InterruptedException {
+         Statement stmt = this._connection.createStatement();
+         try{
+            while (!isInterrupted()){
+               Set<String> users = JdbcStore.this._hub.users();
+               for (String user : users){
+                  if (this._listening.add(user)){
+                     stmt.executeUpdate(String.format("LISTEN \"msg_%s\"; LISTEN \"req_%s\"", user, user));
+                  }
+               }
+               for (String user : new HashSet<String>(this._listening)){
+                  if (!users.contains(user)){
+                     stmt.executeUpdate(String.format("UNLISTEN \"msg_%s\"; UNLISTEN \"req_%s\"", user, user));
+                     this._listening.remove(user);
+                  }
+               }
+               if (missed){
+                  // listening again, reread what arrived while disconnected
+                  missed = false;
+                  JdbcStore.this._esql.invalidateTable("message");
+                  JdbcStore.this._esql.invalidateTable("connection_usr");
+                  for (String user : users){
+                     JdbcStore.this._hub.messageReceived(user);
+                     JdbcStore.this._hub.requestReceived(user);
+                  }
+               }
+               stmt.executeQuery("SELECT 1").close();
+               PGNotification[] notifications = ((PGConnection) this._connection).getNotifications();
+               if (notifications != null){
+                  // the sender's commit must be visible before sessions reread
+                  JdbcStore.this._esql.otherWrote(this._connection);
+                  for (PGNotification notification : notifications){
+                     String name = notification.getName();
+                     if (name.startsWith("msg_")){
+                        JdbcStore.this._esql.invalidateTable("message");
+                        JdbcStore.this._hub.messageReceived(name.substring(4));
+                     }
+                     else if (name.startsWith("req_")){
+                        JdbcStore.this._esql.invalidateTable("connection_usr");
+                        JdbcStore.this._hub.requestReceived(name.substring(4));
+                     }
+                  }
+               }
+               Thread.sleep(LISTEN_INTERVAL);
+            }
+         }finally{
+            stmt.close();
+         }
+      }
+
+      private void closeConnection () {
+         try{
+            if (this._connection != null)
+               this._connection.close();
+         }catch (SQLException e){
+            // ignored.
+         }
+         this._connection = null;
+         // a new connection listens to nothing yet
+         this._listening.clear();
+      }
+   }//end Listener
+
+}//end JdbcStore
@@ -0,0 +1,788 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ProfStore implementation that keeps every table in concurrent, indexed
+ * maps inside the running process.  Writes on a user are serialized by a
+ * striped lock picked from the user's login.  When a journal file is given
+ * every change is appended to it and replayed on the next start.
+ *
+ */
+public class MemoryStore implements ProfStore {
+
+   // what separates the words of a message for searching.
+   private static final String NON_WORD = "[^\\p{L}\\p{N}]+";
+
+   // number of striped locks, must be a power of two.
+   private static final int STRIPES = 64;
+
+   private final Object[] _locks = new Object[STRIPES];
+
+   // USR rows by userId.
+   private final ConcurrentHashMap<String, User> _users = new ConcurrentHashMap<String, User>();
+
+   // CONNECTION_USR status by userId and connectionId, see key().
+   private final ConcurrentHashMap<String, String> _connections = new ConcurrentHashMap<String, String>();
+
+   // every userId is interned to a small int, _names maps it back.
+   private final ConcurrentHashMap<String, Integer> _ids = new ConcurrentHashMap<String, Integer>();
+   private volatile String[] _names = new String[1024];
+   private int _nextId = 0;
+
+   // accepted connections of a user, in both directions, as sorted ids.
+   // The arrays are replaced, never modified, see SortedIds.
+   private final ConcurrentHashMap<String, int[]> _friends = new ConcurrentHashMap<String, int[]>();
+
+   // users with an unaccepted request to a user.
+   private final ConcurrentHashMap<String, Set<String>> _pending = new ConcurrentHashMap<String, Set<String>>();
+
+   // MESSAGE rows by msgId, and the msgIds received by a user in send order.
+   private final ConcurrentHashMap<Integer, Message> _messages = new ConcurrentHashMap<Integer, Message>();
+   private final ConcurrentHashMap<String, List<Integer>> _inbox = new ConcurrentHashMap<String, List<Integer>>();
+   private final AtomicInteger _msgSeq = new AtomicInteger();
+
+   // msgIds exchanged by two users in msgId order, keyed by pair().
+   private final ConcurrentHashMap<String, List<Integer>> _conversations = new ConcurrentHashMap<String, List<Integer>>();
+
+   // msgIds of the messages a user sent or received containing a word,
+   // keyed by key(user, word).
+   private final ConcurrentHashMap<String, List<Integer>> _words = new ConcurrentHashMap<String, List<Integer>>();
+
+   // sessions watching a user.
+   private final NotificationHub _hub = new NotificationHub();
+
+   // append-only journal, null when the store is not durable.
+   private BufferedWriter _journal = null;
+   private FileOutputStream _journalFile = null;
+   private boolean _sync = false;
+
+   private static class User {
+      String password;
+      String email;
+      String name;
+      String dateOfBirth;
+      int version;
+      List<List<String>> education = new ArrayList<List<String>>();
+      List<List<String>> work = new ArrayList<List<String>>();
+   }
+
+   private static class Message {
+      int msgId;
+      String senderId;
+      String receiverId;
+      String contents;
+      String sendTime;
+      volatile int deleteStatus;
+      volatile int status;
+   }
+
+   /**
+    * Creates a new, empty and non durable instance of MemoryStore
+    */
+   public MemoryStore () {
+      for (int i = 0; i < STRIPES; ++i)
+         this._locks[i] = new Object();
+   }//end MemoryStore
+
+   /**
+    * Creates a new instance of MemoryStore backed by a journal.  The journal
+    * is replayed first and then opened for appending.
+    *
+    * @param journal the journal file, created when missing
+    * @param sync when true every record is forced to disk before returning
+    * @throws java.io.IOException when the journal can not be read or opened
+    */
+   public MemoryStore (File journal, boolean sync) throws IOException {
+      this();
+      if (journal.exists())
+         replay(journal);
+      this._journalFile = new FileOutputStream(journal, true);
+      this._journal = new BufferedWriter(new OutputStreamWriter(this._journalFile, "UTF-8"));
+      this._sync = sync;
+   }//end MemoryStore
+
+   private static int stripe (String user) {
+      return (user.hashCode() ^ (user.hashCode() >>> 16)) & (STRIPES - 1);
+   }
+
+   private Object lockFor (String user) {
+      return this._locks[stripe(user)];
+   }
+
+   /*
+    * Returns the two stripes a pair of users map to in a fixed order so that
+    * two threads locking the same pair can never deadlock.
+    **/
+   private Object[] lockPair (String user, String other) {
+      int a = stripe(user), b = stripe(other);
+      return new Object[]{ this._locks[Math.min(a, b)], this._locks[Math.max(a, b)] };
+   }
+
+   private static String key (String user, String other) {
+      return user + '\u0000' + other;
+   }
+
+   private static String pair (String user, String other) {
+      return user.compareTo(other) <= 0 ? key(user, other) : key(other, user);
+   }
+
+   private static Set<String> newSet () {
+      return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+   }
+
+   private Set<String> setOf (ConcurrentHashMap<String, Set<String>> index, String user) {
+      Set<String> set = index.get(user);
+      if (set == null){
+         Set<String> created = newSet();
+         set = index.putIfAbsent(user, created);
+         if (set == null)
+            set = created;
+      }
+      return set;
+   }
+
+   /*
+    * Assigns the next id to a new user.  The name is published before the
+    * id so any reader that finds the id can also resolve it.
+    **/
+   private void intern (String user) {
+      synchronized (this._ids){
+         String[] names = this._names;
+         if (this._nextId == names.length){
+            String[] grown = new String[names.length * 2];
+            System.arraycopy(names, 0, grown, 0, names.length);
+            names = grown;
+         }
+         names[this._nextId] = user;
+         this._names = names;
+         this._ids.put(user, this._nextId++);
+      }
+   }
+
+   private int[] friendsOf (String user) {
+      int[] friends = this._friends.get(user);
+      return friends == null ? SortedIds.EMPTY : friends;
+   }
+
+   private List<String> namesOf (int[] ids, int n) {
+      String[] names = this._names;
+      List<String> result = new ArrayList<String>(n);
+      for (int i = 0; i < n; ++i)
+         result.add(names[ids[i]]);
+      return result;
+   }
+
+   private User requireUser (String user) throws SQLException {
+      User u = this._users.get(user);
+      if (u == null)
+         throw new SQLException("ERROR: user " + user + " does not exist");
+      return u;
+   }
+
+   public void createUser (String login, String password, String email) throws SQLException {
+      synchronized (lockFor(login)){
+         User u = new User();
+         u.password = password;
+         u.email = email;
+         if (this._users.putIfAbsent(login, u) != null)
+            throw new SQLException("ERROR: duplicate key violates unique constraint \"usr_pkey\"");
+         intern(login);
+         journal("U", login, password, email);
+      }
+   }
+
+   public boolean checkCredentials (String login, String password) throws SQLException {
+      User u = this._users.get(login);
+      return u != null && u.password.equals(password);
+   }
+
+   public boolean userExists (String login) throws SQLException {
+      return this._users.containsKey(login);
+   }
+
+   public boolean connectionExists (String user, String other) throws SQLException {
+      return this._connections.containsKey(key(user, other)) || this._connections.containsKey(key(other, user));
+   }
+
+   public int numConnections (String user) throws SQLException {
+      return friendsOf(user).length;
+   }
+
+   public List<String> getConnections (String user) throws SQLException {
+      int[] friends = friendsOf(user);
+      return namesOf(friends, friends.length);
+   }
+
+   public Map<String, List<String>> getConnections (Collection<String> users) throws SQLException {
+      Map<String, List<String>> result = new HashMap<String, List<String>>();
+      for (String user : users)
+         result.put(user, getConnections(user));
+      return result;
+   }
+
+   public List<String> mutualConnections (String user, String other) throws SQLException {
+      int[] a = friendsOf(user), b = friendsOf(other);
+      int[] common = new int[Math.min(a.length, b.length)];
+      int n = SortedIds.intersect(a, b, common);
+      List<String> result = namesOf(common, n);
+      Collections.sort(result);
+      return result;
+   }
+
+   public Map<String, Integer> mutualConnectionCounts (String user, List<String> others) throws SQLException {
+      int[] a = friendsOf(user);
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      for (String other : others)
+         counts.put(other, SortedIds.intersectCount(a, friendsOf(other)));
+      return counts;
+   }
+
+   public void sendRequest (String user, String other) throws SQLException {
+      requireUser(user);
+      requireUser(other);
+      Object[] locks = lockPair(user, other);
+      synchronized (locks[0]){
+         synchronized (locks[1]){
+            if (this._connections.putIfAbsent(key(user, other), "0") != null)
+               throw new SQLException("ERROR: duplicate key violates unique constraint \"connection_usr_pkey\"");
+            setOf(this._pending, other).add(user);
+            journal("R", user, other);
+         }
+      }
+      this._hub.requestReceived(other);
+   }
+
+   public List<String> pendingRequests (String user) throws SQLException {
+      Set<String> requests = this._pending.get(user);
+      return requests == null ? new ArrayList<String>() : new ArrayList<String>(requests);
+   }
+
+   public void acceptRequest (String user, String friend) throws SQLException {
+      answerRequest(user, friend, "1");
+   }
+
+   public void denyRequest (String user, String friend) throws SQLException {
+      answerRequest(user, friend, "2");
+   }
+
+   private void answerRequest (String user, String friend, String status) throws SQLException {
+      Object[] locks = lockPair(user, friend);
+      synchronized (locks[0]){
+         synchronized (locks[1]){
+            if (!this._connections.replace(key(friend, user), "0", status))
+               return;
+            setOf(this._pending, user).remove(friend);
+            if (status.equals("1")){
+               this._friends.put(user, SortedIds.insert(friendsOf(user), this._ids.get(friend)));
+               this._friends.put(friend, SortedIds.insert(friendsOf(friend), this._ids.get(user)));
+            }
+            journal(status.equals("1") ? "A" : "D", user, friend);
+         }
+      }
+   }
+
+   public void sendMessage (String sender, String receiver, String contents) throws SQLException {
+      requireUser(sender);
+      requireUser(receiver);
+      if (contents.length() > 500)
+         throw new SQLException("ERROR: value too long for type character varying(500)");
+      synchronized (lockFor(receiver)){
+         Message m = new Message();
+         m.msgId = this._msgSeq.incrementAndGet();
+         m.senderId = sender;
+         m.receiverId = receiver;
+         m.contents = contents;
+         m.sendTime = new Timestamp(System.currentTimeMillis()).toString();
+         addMessage(m);
+         journal("M", Integer.toString(m.msgId), sender, receiver, m.sendTime, contents);
+      }
+      this._hub.messageReceived(receiver);
+   }
+
+   private void addMessage (Message m) {
+      this._messages.put(m.msgId, m);
+      List<Integer> inbox = this._inbox.get(m.receiverId);
+      if (inbox == null){
+         inbox = new ArrayList<Integer>();
+         this._inbox.put(m.receiverId, inbox);
+      }
+      inbox.add(m.msgId);
+      List<Integer> conversation = this._conversations.get(pair(m.senderId, m.receiverId));
+      if (conversation == null){
+         List<Integer> created = Collections.synchronizedList(new ArrayList<Integer>());
+         conversation = this._conversations.putIfAbsent(pair(m.senderId, m.receiverId), created);
+         if (conversation == null)
+            conversation = created;
+      }
+      // A to B sends under B's lock and B to A under A's, so replies can
+      // arrive out of msgId order
+      synchronized (conversation){
+         int at = Collections.binarySearch(conversation, m.msgId);
+         conversation.add(-at - 1, m.msgId);
+      }
+      for (String word : words(m.contents)){
+         index(key(m.receiverId, word), m.msgId);
+         if (!m.senderId.equals(m.receiverId))
+            index(key(m.senderId, word), m.msgId);
+      }
+   }
+
+   private void index (String key, int msgId) {
+      List<Integer> postings = this._words.get(key);
+      if (postings == null){
+         List<Integer> created = Collections.synchronizedList(new ArrayList<Integer>());
+         postings = this._words.putIfAbsent(key, created);
+         if (postings == null)
+            postings = created;
+      }
+      postings.add(msgId);
+   }
+
+   /*
+    * Splits text into distinct lower case words of letters and digits
+    **/
+   private static Set<String> words (String text) {
+      Set<String> words = new LinkedHashSet<String>();
+      for (String word : text.toLowerCase().split(NON_WORD))
+         if (word.length() > 0)
+            words.add(word);
+      return words;
+   }
+
+   public List<List<String>> conversation (String user, String other, String beforeTime, int beforeMsgId, int limit) throws SQLException {
+      List<List<String>> result = new ArrayList<List<String>>();
+      List<Integer> conversation = this._conversations.get(pair(user, other));
+      if (conversation == null)
+         return result;
+      synchronized (conversation){
+         // addMessage keeps the list in msgId order, which pages rely on
+         for (int i = conversation.size() - 1; i >= 0 && result.size() < limit; --i){
+            Message m = this._messages.get(conversation.get(i));
+            if (beforeTime != null && m.msgId >= beforeMsgId)
+               continue;
+            boolean visible = (m.receiverId.equals(user) && m.deleteStatus == 0)
+                           || (m.senderId.equals(user) && m.status == 0);
+            if (!visible)
+               continue;
+            List<String> record = new ArrayList<String>();
+            record.add(Integer.toString(m.msgId));
+            record.add(m.senderId);
+            record.add(m.receiverId);
+            record.add(m.sendTime);
+            record.add(m.contents);
+            result.add(record);
+         }
+      }
+      return result;
+   }
+
+   public List<List<String>> searchMessages (String user, String terms, int limit, int offset) throws SQLException {
+      Set<String> words = words(terms);
+      List<List<String>> result = new ArrayList<List<String>>();
+      if (words.isEmpty())
+         return result;
+
+      // start from the shortest posting list and keep what every word has
+      List<Integer> candidates = null;
+      for (String word : words){
+         List<Integer> postings = this._words.get(key(user, word));
+         if (postings == null)
+            return result;
+         synchronized (postings){
+            if (candidates == null || postings.size() < candidates.size())
+               candidates = new ArrayList<Integer>(postings);
+         }
+      }
+      final Map<Integer, Integer> rank = new HashMap<Integer, Integer>();
+      List<Message> hits = new ArrayList<Message>();
+      for (Integer msgId : candidates){
+         Message m = this._messages.get(msgId);
+         boolean visible = (m.receiverId.equals(user) && m.deleteStatus == 0)
+                        || (m.senderId.equals(user) && m.status == 0);
+         if (!visible)
+            continue;
+         // rank by how often the words occur, like ts_rank
+         List<String> all = Arrays.asList(m.contents.toLowerCase().split(NON_WORD));
+         int occurrences = 0;
+         boolean matches = true;
+         for (String word : words){
+            int n = Collections.frequency(all, word);
+            matches &= n > 0;
+            occurrences += n;
+         }
+         if (matches){
+            rank.put(m.msgId, occurrences);
+            hits.add(m);
+         }
+      }
+      Collections.sort(hits, new Comparator<Message>(){
+         public int compare (Message a, Message b) {
+            int byRank = rank.get(b.msgId).compareTo(rank.get(a.msgId));
+            return byRank != 0 ? byRank : b.msgId - a.msgId;
+         }
+      });
+      for (Message m : hits.subList(Math.min(offset, hits.size()), Math.min(offset + limit, hits.size()))){
+         List<String> record = new ArrayList<String>();
+         record.add(Integer.toString(m.msgId));
+         record.add(m.senderId);
+         record.add(m.receiverId);
+         record.add(m.sendTime);
+         record.add(m.contents);
+         result.add(record);
+      }
+      return result;
+   }
+
+   public List<List<String>> inbox (String user) throws SQLException {
+      return inboxSince(user, 0);
+   }
+
+   public List<List<String>> inboxSince (String user, int afterMsgId) throws SQLException {
+      List<List<String>> result = new ArrayList<List<String>>();
+      synchronized (lockFor(user)){
+         List<Integer> inbox = this._inbox.get(user);
+         if (inbox == null)
+            return result;
+         // msgIds are appended in increasing order
+         int pos = Collections.binarySearch(inbox, afterMsgId + 1);
+         for (Integer msgId : inbox.subList(pos < 0 ? -pos - 1 : pos, inbox.size())){
+            Message m = this._messages.get(msgId);
+            List<String> record = new ArrayList<String>();
+            record.add(Integer.toString(m.msgId));
+            record.add(m.senderId);
+            record.add(m.contents);
+            record.add(Integer.toString(m.deleteStatus));
+            result.add(record);
+         }
+      }
+      return result;
+   }
+
+   public void deleteMessage (String user, String msgId) throws SQLException {
+      Message m = this._messages.get(Integer.valueOf(msgId.trim()));
+      if (m != null && m.receiverId.equals(user))
+         markDeleted(m);
+   }
+
+   private void markDeleted (Message m) throws SQLException {
+      synchronized (lockFor(m.receiverId)){
+         m.deleteStatus = 1;
+         journal("X", Integer.toString(m.msgId));
+      }
+   }
+
+   public void deleteSentMessage (String user, String receiver, String msgId) throws SQLException {
+      Message m = this._messages.get(Integer.valueOf(msgId.trim()));
+      if (m != null && m.senderId.equals(user) && m.receiverId.equals(receiver))
+         markSentDeleted(m);
+   }
+
+   private void markSentDeleted (Message m) throws SQLException {
+      synchronized (lockFor(m.receiverId)){
+         m.status = 1;
+         journal("Y", Integer.toString(m.msgId));
+      }
+   }
+
+   public int profileVersion (String user) throws SQLException {
+      synchronized (lockFor(user)){
+         return requireUser(user).version;
+      }
+   }
+
+   public void commitProfile (ProfileEdit edit) throws SQLException {
+      String user = edit.user();
+      String date = edit.fields().get("dateOfBirth");
+      if (date != null){
+         try{
+            edit.setBirthday(java.sql.Date.valueOf(date).toString());
+         }catch (IllegalArgumentException e){
+            throw new SQLException("ERROR: invalid input syntax for type date: \"" + date + "\"");
+         }
+      }
+      for (List<String> w : edit.work())
+         if (w.get(0) == null || w.get(1) == null || w.get(3) == null)
+            throw new SQLException("ERROR: null value in column of primary key \"work_expr_pkey\"");
+      for (List<String> e : edit.education())
+         if (e.get(0) == null || e.get(1) == null || e.get(2) == null)
+            throw new SQLException("ERROR: null value in column of primary key \"educational_details_pkey\"");
+
+      synchronized (lockFor(user)){
+         User u = requireUser(user);
+         if (u.version != edit.version())
+            throw new SQLException("ERROR: " + user + "'s profile was changed by another session", "40001");
+         // the whole edit goes to the journal in one write, and replay only
+         // applies the P, W and S records once their C record is read
+         StringBuilder records = new StringBuilder();
+         for (Map.Entry<String, String> field : edit.fields().entrySet()){
+            setField(u, field.getKey(), field.getValue());
+            record(records, "P", user, field.getKey(), field.getValue());
+         }
+         for (List<String> w : edit.work()){
+            upsert(u.work, w, 0, 1, 3);
+            record(records, "W", user, w.get(0), w.get(1), w.get(2), w.get(3), w.get(4));
+         }
+         for (List<String> e : edit.education()){
+            upsert(u.education, e, 1, 2, -1);
+            record(records, "S", user, e.get(0), e.get(1), e.get(2), e.get(3), e.get(4));
+         }
+         ++u.version;
+         record(records, "C", user, Integer.toString(u.version));
+         write(records.toString());
+      }
+   }
+
+   private static void setField (User u, String field, String value) {
+      if (field.equals("password")) u.password = value;
+      else if (field.equals("email")) u.email = value;
+      else if (field.equals("name")) u.name = value;
+      else if (field.equals("dateOfBirth")) u.dateOfBirth = value;
+   }
+
+   /*
+    * Replaces the row whose key columns match, or appends it.  A key column
+    * of -1 is ignored.
+    **/
+   private static void upsert (List<List<String>> rows, List<String> row, int k1, int k2, int k3) {
+      for (int i = 0; i < rows.size(); ++i){
+         List<String> old = rows.get(i);
+         if (old.get(k1).equals(row.get(k1)) && old.get(k2).equals(row.get(k2))
+             && (k3 < 0 || old.get(k3).equals(row.get(k3)))){
+            rows.set(i, row);
+            return;
+         }
+      }
+      rows.add(row);
+   }
+
+   public List<List<String>> educationHistory (String user) throws SQLException {
+      User u = this._users.get(user);
+      if (u == null)
+         return new ArrayList<List<String>>();
+      synchronized (lockFor(user)){
+         return new ArrayList<List<String>>(u.education);
+      }
+   }
+
+   public List<List<String>> workHistory (String user) throws SQLException {
+      User u = this._users.get(user);
+      if (u == null)
+         return new ArrayList<List<String>>();
+      synchronized (lockFor(user)){
+         return new ArrayList<List<String>>(u.work);
+      }
+   }
+
+   public void watch (String user, StoreListener listener) throws SQLException {
+      this._hub.add(user, listener);
+   }
+
+   public void unwatch (String user, StoreListener listener) {
+      this._hub.remove(user, listener);
+   }
+
+   public void close () {
+      try{
+         if (this._journal != null){
+            this._journal.close();
+            this._journal = null;
+         }//end if
+      }catch (IOException e){
+         // ignored.
+      }//end try
+   }
+
+   /*
+    * Appends one record to the journal.  Fields are tab separated and each
+    * record is one line.
+    **/
+   private void journal (String... fields) throws SQLException {
+      if (this._journal == null)
+         return;
+      StringBuilder line = new StringBuilder();
+      record(line, fields);
+      write(line.toString());
+   }
+
+   private static void record (StringBuilder lines, String... fields) {
+      for (int i = 0; i < fields.length; ++i){
+         if (i > 0)
+            lines.append('\t');
+         escape(lines, fields[i]);
+      }
+      lines.append('\n');
+   }
+
+   /*
+    * Writes whole records to the journal, flushed as one write.
+    **/
+   private void write (String records) throws SQLException {
+      if (this._journal == null)
+         return;
+      try{
+         synchronized (this._journal){
+            this._journal.write(records);
+            this._journal.flush();
+            if (this._sync)
+               this._journalFile.getFD().sync();
+         }
+      }catch (IOException e){
+         throw new SQLException("ERROR: could not write journal: " + e.getMessage());
+      }
+   }
+
+   private static void escape (StringBuilder line, String field) {
+      if (field == null){
+         line.append("\\N");
+         return;
+      }
+      for (int i = 0; i < field.length(); ++i){
+         char c = field.charAt(i);
+         switch (c){
+            case '\\': line.append("\\\\"); break;
+            case '\t': line.append("\\t"); break;
+            case '\n': line.append("\\n"); break;
+            case '\r': line.append("\\r"); break;
+            default: line.append(c); break;
+         }
+      }
+   }
+
+   private static String[] unescape (String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean isNull = false;
+      for (int i = 0; i < line.length(); ++i){
+         char c = line.charAt(i);
+         if (c == '\t'){
+            fields.add(isNull ? null : field.toString());
+            field.setLength(0);
+            isNull = false;
+         }
+         else if (c == '\\' && i + 1 < line.length()){
+            char n = line.charAt(++i);
+            switch (n){
+               case 't': field.append('\t'); break;
+               case 'n': field.append('\n'); break;
+               case 'r': field.append('\r'); break;
+               case 'N': isNull = true; break;
+               default: field.append(n); break;
+            }
+         }
+         else
+            field.append(c);
+      }
+      fields.add(isNull ? null : field.toString());
+      return fields.toArray(new String[fields.size()]);
+   }
+
+   private static void applyEdit (User u, String[] f) {
+      switch (f[0].charAt(0)){
+         case 'P': setField(u, f[2], f[3]); break;
+         case 'W': upsert(u.work, row(f, 2), 0, 1, 3); break;
+         case 'S': upsert(u.education, row(f, 2), 1, 2, -1); break;
+      }
+   }
+
+   private static List<String> row (String[] fields, int from) {
+      List<String> row = new ArrayList<String>();
+      for (int i = from; i < fields.length; ++i)
+         row.add(fields[i]);
+      return row;
+   }
+
+   /*
+    * Rebuilds the maps from a journal.  Called before the journal is opened
+    * for writing so nothing is journaled twice.  Profile records are held
+    * back until the C record ending their edit, so an edit cut short by a
+    * crash is dropped whole.
+    **/
+   private void replay (File journal) throws IOException {
+      BufferedReader reader = new BufferedReader(new FileReader(journal));
+      Map<String, List<String[]>> edits = new HashMap<String, List<String[]>>();
+      try{
+         String line;
+         while ((line = reader.readLine()) != null){
+            if (line.length() == 0)
+               continue;
+            String[] f = unescape(line);
+            try{
+               switch (f[0].charAt(0)){
+                  case 'U': createUser(f[1], f[2], f[3]); break;
+                  case 'R': sendRequest(f[1], f[2]); break;
+                  case 'A': acceptRequest(f[1], f[2]); break;
+                  case 'D': denyRequest(f[1], f[2]); break;
+                  case 'X': markDeleted(this._messages.get(Integer.valueOf(f[1]))); break;
+                  case 'Y': markSentDeleted(this._messages.get(Integer.valueOf(f[1]))); break;
+                  case 'M':
+                     Message m = new Message();
+                     m.msgId = Integer.parseInt(f[1]);
+                     m.senderId = f[2];
+                     m.receiverId = f[3];
+                     m.sendTime = f[4];
+                     m.contents = f[5];
+                     addMessage(m);
+                     if (m.msgId > this._msgSeq.get())
+                        this._msgSeq.set(m.msgId);
+                     break;
+                  case 'P': case 'W': case 'S':
+                     List<String[]> edit = edits.get(f[1]);
+                     if (edit == null){
+                        edit = new ArrayList<String[]>();
+                        edits.put(f[1], edit);
+                     }
+                     edit.add(f);
+                     break;
+                  case 'C':
+                     User u = requireUser(f[1]);
+                     List<String[]> records = edits.remove(f[1]);
+                     if (records != null)
+                        for (String[] r : records)
+                           applyEdit(u, r);
+                     u.version = Integer.parseInt(f[2]);
+                     break;
+                  default:
+                     throw new IOException("unknown journal record: " + f[0]);
+               }
+            }catch (SQLException e){
+               throw new IOException("corrupt journal record: " + e.getMessage());
+            }
+         }
+      }finally{
+         reader.close();
+      }
+   }
+
+}//end MemoryStore
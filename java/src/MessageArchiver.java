@@ -0,0 +1,163 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background job that moves messages deleted by both sender and receiver,
+ * and optionally every message older than a number of days, from MESSAGE
+ * to MESSAGE_ARCHIVE.  Receivers delete from their inbox and senders from
+ * the conversation view, see ProfStore.deleteSentMessage.
+ *
+ * The job walks MESSAGE in msgId windows of a fixed size, moving one
+ * window per transaction, and stores the end of the last finished window
+ * in ARCHIVE_CHECKPOINT so a restart resumes where it stopped.  After each
+ * window it sleeps long enough to stay within its duty cycle.  When the
+ * walk reaches the newest message it starts over after IDLE_INTERVAL.
+ *
+ */
+public class MessageArchiver implements Runnable {
+
+   // pause between two passes over the whole table, in milliseconds.
+   private static final long IDLE_INTERVAL = 60000;
+
+   private static final String JOB = "messages";
+
+   // windows being moved right now over every database, see ProfNetwork
+   // query timings.
+   private static final AtomicInteger _busy = new AtomicInteger();
+
+   private final ProfNetwork _esql;
+   private final int _window;
+   private final int _olderThanDays;
+   private final double _duty;
+
+   /**
+    * Creates a new instance of MessageArchiver
+    *
+    * @param esql the ProfNetwork to take a connection from
+    * @param window how many msgIds each transaction covers
+    * @param olderThanDays also archive messages older than this, 0 to only
+    *        archive messages deleted on both sides
+    * @param duty the largest fraction of time spent moving rows, 0 to 1
+    */
+   public MessageArchiver (ProfNetwork esql, int window, int olderThanDays, double duty) {
+      this._esql = esql;
+      this._window = window;
+      this._olderThanDays = olderThanDays;
+      this._duty = Math.max(0.01, Math.min(1.0, duty));
+   }//end MessageArchiver
+
+   /**
+    * @return true while any archiver is inside a transaction
+    */
+   public static boolean busy () {
+      return _busy.get() > 0;
+   }
+
+   public void run () {
+      Connection connection = null;
+      try{
+         connection = this._esql.openConnection();
+         connection.setAutoCommit(false);
+         Statement stmt = connection.createStatement();
+         int checkpoint = readCheckpoint(stmt);
+         connection.commit();
+
+         while (!Thread.currentThread().isInterrupted()){
+            int last = maxMsgId(stmt);
+            connection.commit();
+            if (checkpoint >= last){
+               // caught up, start over later to pick up newly deleted rows,
+               // also after a restart
+               checkpoint = 0;
+               stmt.executeUpdate(String.format("UPDATE ARCHIVE_CHECKPOINT SET lastMsgId = 0, updatedAt = now() WHERE job = '%s'", JOB));
+               connection.commit();
+               Thread.sleep(IDLE_INTERVAL);
+               continue;
+            }
+
+            long start = System.nanoTime();
+            _busy.incrementAndGet();
+            int moved;
+            try{
+               moved = moveWindow(stmt, checkpoint, checkpoint + this._window);
+               checkpoint += this._window;
+               stmt.executeUpdate(String.format("UPDATE ARCHIVE_CHECKPOINT SET lastMsgId = %d, updatedAt = now() WHERE job = '%s'", checkpoint, JOB));
+               connection.commit();
+            }catch (SQLException e){
+               connection.rollback();
+               throw e;
+            }finally{
+               _busy.decrementAndGet();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Metrics.time("archive.window", elapsed);
+            Metrics.add("archive.moved", moved);
+            Metrics.set("archive.checkpoint", checkpoint);
+            if (moved > 0)
+               this._esql.invalidateTable("message");
+
+            // stay idle (1 - duty) of the time
+            Thread.sleep((long) (elapsed / 1e6 * (1 - this._duty) / this._duty));
+         }
+      }catch (InterruptedException e){
+         // stopping.
+      }catch (SQLException e){
+         System.err.println("Message archiver stopped: " + e.getMessage());
+      }finally{
+         try{
+            if (connection != null)
+               connection.close();
+         }catch (SQLException e){
+            // ignored.
+         }
+      }
+   }
+
+   private int readCheckpoint (Statement stmt) throws SQLException {
+      ResultSet rs = stmt.executeQuery(String.format("SELECT lastMsgId FROM ARCHIVE_CHECKPOINT WHERE job = '%s'", JOB));
+      if (rs.next())
+         return rs.getInt(1);
+      stmt.executeUpdate(String.format("INSERT INTO ARCHIVE_CHECKPOINT(job, lastMsgId, updatedAt) VALUES ('%s', 0, now())", JOB));
+      return 0;
+   }
+
+   private int maxMsgId (Statement stmt) throws SQLException {
+      ResultSet rs = stmt.executeQuery("SELECT coalesce(max(msgId), 0) FROM MESSAGE");
+      rs.next();
+      return rs.getInt(1);
+   }
+
+   /*
+    * Moves the archivable messages with from < msgId <= to in one statement.
+    * @return the number of messages moved
+    **/
+   private int moveWindow (Statement stmt, int from, int to) throws SQLException {
+      String archivable = "(deleteStatus = 1 AND status = 1)";
+      if (this._olderThanDays > 0)
+         archivable = String.format("(%s OR sendTime < now() - interval '%d days')", archivable, this._olderThanDays);
+      String query = String.format(
+         "WITH moved AS (DELETE FROM MESSAGE WHERE msgId > %d AND msgId <= %d AND %s " +
+         "RETURNING msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) " +
+         "INSERT INTO MESSAGE_ARCHIVE(msgId, senderId, receiverId, contents, sendTime, deleteStatus, status) " +
+         "SELECT * FROM moved", from, to, archivable);
+      return stmt.executeUpdate(query);
+   }
+
+}//end MessageArchiver
@@ -0,0 +1,103 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters and timers, shown by the Statistics menu.
+ *
+ */
+public class Metrics {
+
+   private static final ConcurrentHashMap<String, AtomicLong> _counters = new ConcurrentHashMap<String, AtomicLong>();
+   private static final ConcurrentHashMap<String, Timer> _timers = new ConcurrentHashMap<String, Timer>();
+
+   private Metrics () {
+   }
+
+   private static class Timer {
+      final AtomicLong count = new AtomicLong();
+      final AtomicLong total = new AtomicLong();
+      final AtomicLong max = new AtomicLong();
+   }
+
+   private static AtomicLong counter (String name) {
+      AtomicLong counter = _counters.get(name);
+      if (counter == null){
+         AtomicLong created = new AtomicLong();
+         counter = _counters.putIfAbsent(name, created);
+         if (counter == null)
+            counter = created;
+      }
+      return counter;
+   }
+
+   public static void increment (String name) {
+      counter(name).incrementAndGet();
+   }
+
+   public static void add (String name, long delta) {
+      counter(name).addAndGet(delta);
+   }
+
+   /**
+    * Sets a counter that reports a current value rather than a total.
+    */
+   public static void set (String name, long value) {
+      counter(name).set(value);
+   }
+
+   public static long get (String name) {
+      AtomicLong counter = _counters.get(name);
+      return counter == null ? 0 : counter.get();
+   }
+
+   /**
+    * Records one duration.
+    *
+    * @param nanos the duration in nanoseconds
+    */
+   public static void time (String name, long nanos) {
+      Timer timer = _timers.get(name);
+      if (timer == null){
+         Timer created = new Timer();
+         timer = _timers.putIfAbsent(name, created);
+         if (timer == null)
+            timer = created;
+      }
+      timer.count.incrementAndGet();
+      timer.total.addAndGet(nanos);
+      long max = timer.max.get();
+      while (nanos > max && !timer.max.compareAndSet(max, nanos))
+         max = timer.max.get();
+   }
+
+   /**
+    * Prints every counter and timer, sorted by name.
+    */
+   public static void report (PrintStream out) {
+      for (Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(_counters).entrySet())
+         out.printf("%-32s %d\n", counter.getKey(), counter.getValue().get());
+      for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(_timers).entrySet()){
+         Timer timer = entry.getValue();
+         long count = timer.count.get();
+         out.printf("%-32s %d calls, avg %.2f ms, max %.2f ms\n", entry.getKey(), count,
+                    count == 0 ? 0.0 : timer.total.get() / 1e6 / count, timer.max.get() / 1e6);
+      }
+   }
+
+}//end Metrics
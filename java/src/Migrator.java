@@ -0,0 +1,279 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the numbered scripts of sql/migrations, NNN_name.sql, in order
+ * and records them in SCHEMA_VERSION.
+ *
+ * A script is cut into steps by comment lines starting with "-- step":
+ *
+ *   -- step                               runs in one transaction
+ *   -- step autocommit                    runs outside a transaction, for
+ *                                         CREATE INDEX CONCURRENTLY
+ *   -- step batch TABLE COLUMN SIZE       runs once per window of the next
+ *                                         SIZE rows in COLUMN order, each
+ *                                         in its own transaction, with
+ *                                         {window} replaced by the range.
+ *                                         A window ends on a COLUMN value,
+ *                                         so it takes every row sharing
+ *                                         its last value and may hold more
+ *                                         than SIZE rows
+ *
+ * A CREATE INDEX CONCURRENTLY that fails leaves an invalid index behind,
+ * which IF NOT EXISTS would then take for done.  Before an autocommit step
+ * runs, invalid indexes it creates are dropped so it builds them again.
+ *
+ * The number of finished steps and the end of the last finished window
+ * are saved with every transaction, so an interrupted migration resumes
+ * where it stopped instead of starting over.  Batches pause between
+ * windows so foreground queries keep their share of the database.
+ *
+ */
+public class Migrator {
+
+   private static final Pattern FILE = Pattern.compile("(\\d+)_(\\w+)\\.sql");
+
+   private static final Pattern STEP = Pattern.compile("--\\s*step\\b\\s*(.*)");
+
+   // the name of an index built concurrently.
+   private static final Pattern CONCURRENT_INDEX = Pattern.compile(
+      "create\\s+(?:unique\\s+)?index\\s+concurrently\\s+(?:if\\s+not\\s+exists\\s+)?(\\w+)", Pattern.CASE_INSENSITIVE);
+
+   private final ProfNetwork _esql;
+   private final File _dir;
+   private final long _pause;
+
+   /*
+    * One "-- step" section of a script.
+    **/
+   private static class Step {
+      String[] kind;
+      StringBuilder sql = new StringBuilder();
+   }
+
+   /**
+    * Creates a new instance of Migrator
+    *
+    * @param esql the ProfNetwork to take a connection from
+    * @param dir the directory holding the scripts
+    * @param pause milliseconds to wait between two batch windows
+    */
+   public Migrator (ProfNetwork esql, File dir, long pause) {
+      this._esql = esql;
+      this._dir = dir;
+      this._pause = pause;
+   }//end Migrator
+
+   /**
+    * Applies every script numbered above the current version and up to
+    * target.
+    *
+    * @return the version of the schema afterwards
+    */
+   public int migrate (int target) throws SQLException, IOException {
+      File[] files = this._dir.listFiles();
+      if (files == null)
+         throw new IOException("No migrations in " + this._dir);
+      Arrays.sort(files);
+
+      Connection connection = this._esql.openConnection();
+      try{
+         Statement stmt = connection.createStatement();
+         stmt.executeUpdate(
+            "CREATE TABLE IF NOT EXISTS SCHEMA_VERSION(version integer NOT NULL, name varchar(100) NOT NULL, " +
+            "stepsDone integer NOT NULL DEFAULT 0, batchKey text, appliedAt timestamp, PRIMARY KEY(version))");
+         int current = 0;
+         for (File file : files){
+            Matcher m = FILE.matcher(file.getName());
+            if (!m.matches())
+               continue;
+            int version = Integer.parseInt(m.group(1));
+            if (version > target)
+               break;
+            ResultSet rs = stmt.executeQuery(String.format(
+               "SELECT stepsDone, batchKey, appliedAt FROM SCHEMA_VERSION WHERE version = %d", version));
+            int done = 0;
+            String batchKey = null;
+            if (rs.next()){
+               done = rs.getInt(1);
+               batchKey = rs.getString(2);
+               if (rs.getString(3) != null){
+                  rs.close();
+                  current = version;
+                  continue;
+               }
+            }
+            else{
+               stmt.executeUpdate(String.format(
+                  "INSERT INTO SCHEMA_VERSION(version, name) VALUES (%d, '%s')", version, m.group(2)));
+            }
+            rs.close();
+
+            System.out.printf("Applying %s\n", file.getName());
+            long start = System.nanoTime();
+            List<Step> steps = parse(file);
+            for (int i = done; i < steps.size(); ++i){
+               System.out.printf("  step %d of %d\n", i + 1, steps.size());
+               apply(connection, version, i, steps.get(i), batchKey);
+               batchKey = null;
+            }
+            stmt.executeUpdate(String.format(
+               "UPDATE SCHEMA_VERSION SET appliedAt = now(), batchKey = NULL WHERE version = %d", version));
+            Metrics.time("migrate." + version, System.nanoTime() - start);
+            current = version;
+         }
+         return current;
+      }finally{
+         connection.close();
+      }
+   }
+
+   /*
+    * Runs step number index of a migration and records it as done.
+    **/
+   private void apply (Connection connection, int version, int index, Step step, String batchKey) throws SQLException {
+      Statement stmt = connection.createStatement();
+      String done = String.format(
+         "UPDATE SCHEMA_VERSION SET stepsDone = %d, batchKey = NULL WHERE version = %d", index + 1, version);
+      String kind = step.kind.length > 0 ? step.kind[0] : "";
+
+      if (kind.equals("autocommit")){
+         dropInvalidIndexes(stmt, step.sql.toString());
+         stmt.executeUpdate(step.sql.toString());
+         stmt.executeUpdate(done);
+      }
+      else if (kind.equals("batch")){
+         if (step.kind.length != 4)
+            throw new SQLException("Expected -- step batch TABLE COLUMN SIZE in migration " + version);
+         String table = step.kind[1], column = step.kind[2];
+         int size = Integer.parseInt(step.kind[3]);
+         String last = batchKey;
+         while (true){
+            // the key of the size-th row after the last window
+            ResultSet rs = stmt.executeQuery(String.format(
+               "SELECT max(%2$s) FROM (SELECT %2$s FROM %1$s%3$s ORDER BY %2$s LIMIT %4$d) w",
+               table, column, last == null ? "" : " WHERE " + column + " > " + literal(last), size));
+            rs.next();
+            String next = rs.getString(1);
+            rs.close();
+            if (next == null)
+               break;
+            String window = (last == null ? "" : column + " > " + literal(last) + " AND ") + column + " <= " + literal(next);
+
+            connection.setAutoCommit(false);
+            try{
+               int rows = stmt.executeUpdate(step.sql.toString().replace("{window}", window));
+               stmt.executeUpdate(String.format(
+                  "UPDATE SCHEMA_VERSION SET batchKey = %s WHERE version = %d", literal(next), version));
+               connection.commit();
+               Metrics.add("migrate.rows", rows);
+            }catch (SQLException e){
+               connection.rollback();
+               throw e;
+            }finally{
+               connection.setAutoCommit(true);
+            }
+            last = next;
+            try{
+               Thread.sleep(this._pause);
+            }catch (InterruptedException e){
+               throw new SQLException("Migration interrupted");
+            }
+         }
+         stmt.executeUpdate(done);
+      }
+      else if (kind.equals("")){
+         connection.setAutoCommit(false);
+         try{
+            stmt.executeUpdate(step.sql.toString());
+            stmt.executeUpdate(done);
+            connection.commit();
+         }catch (SQLException e){
+            connection.rollback();
+            throw e;
+         }finally{
+            connection.setAutoCommit(true);
+         }
+      }
+      else{
+         throw new SQLException("Unknown step kind '" + kind + "' in migration " + version);
+      }
+      stmt.close();
+   }
+
+   /*
+    * Drops the indexes an autocommit step builds concurrently when an
+    * earlier, failed run left them invalid.
+    **/
+   private static void dropInvalidIndexes (Statement stmt, String sql) throws SQLException {
+      Matcher m = CONCURRENT_INDEX.matcher(sql);
+      while (m.find()){
+         String index = m.group(1).toLowerCase();
+         ResultSet rs = stmt.executeQuery(String.format(
+            "SELECT 1 FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+            "WHERE c.relname = %s AND pg_table_is_visible(c.oid) AND NOT i.indisvalid", literal(index)));
+         boolean invalid = rs.next();
+         rs.close();
+         if (invalid){
+            System.out.printf("  dropping invalid index %s left by a failed run\n", index);
+            stmt.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + index);
+         }
+      }
+   }
+
+   /*
+    * Cuts a script into its steps, dropping what comes before the first.
+    **/
+   private static List<Step> parse (File file) throws IOException {
+      List<Step> steps = new ArrayList<Step>();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try{
+         Step step = null;
+         String line;
+         while ((line = reader.readLine()) != null){
+            Matcher m = STEP.matcher(line.trim());
+            if (m.matches()){
+               step = new Step();
+               String kind = m.group(1).trim();
+               step.kind = kind.isEmpty() ? new String[0] : kind.split("\\s+");
+               steps.add(step);
+            }
+            else if (step != null){
+               step.sql.append(line).append('\n');
+            }
+         }
+      }finally{
+         reader.close();
+      }
+      return steps;
+   }
+
+   private static String literal (String value) {
+      return "'" + value.replace("'", "''") + "'";
+   }
+
+}//end Migrator
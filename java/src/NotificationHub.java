@@ -0,0 +1,78 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fans store events out to every listener watching the affected user.
+ *
+ */
+public class NotificationHub implements StoreListener {
+
+   private final ConcurrentHashMap<String, List<StoreListener>> _listeners =
+      new ConcurrentHashMap<String, List<StoreListener>>();
+
+   /**
+    * @return true when this is the first listener watching the user
+    */
+   public synchronized boolean add (String user, StoreListener listener) {
+      List<StoreListener> listeners = this._listeners.get(user);
+      boolean first = listeners == null;
+      if (first){
+         listeners = new CopyOnWriteArrayList<StoreListener>();
+         this._listeners.put(user, listeners);
+      }
+      listeners.add(listener);
+      return first;
+   }
+
+   /**
+    * @return true when nobody watches the user any more
+    */
+   public synchronized boolean remove (String user, StoreListener listener) {
+      List<StoreListener> listeners = this._listeners.get(user);
+      if (listeners == null)
+         return false;
+      listeners.remove(listener);
+      if (!listeners.isEmpty())
+         return false;
+      this._listeners.remove(user);
+      return true;
+   }
+
+   /**
+    * @return the users watched right now
+    */
+   public Set<String> users () {
+      return new HashSet<String>(this._listeners.keySet());
+   }
+
+   public void messageReceived (String user) {
+      List<StoreListener> listeners = this._listeners.get(user);
+      if (listeners != null)
+         for (StoreListener listener : listeners)
+            listener.messageReceived(user);
+   }
+
+   public void requestReceived (String user) {
+      List<StoreListener> listeners = this._listeners.get(user);
+      if (listeners != null)
+         for (StoreListener listener : listeners)
+            listener.requestReceived(user);
+   }
+
+}//end NotificationHub
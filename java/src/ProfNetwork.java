@@ -21,8 +21,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -36,11 +41,34 @@ public class ProfNetwork {
    // reference to physical database connection.
    private Connection _connection = null;
 
+   // connection parameters, kept to open extra connections.
+   private String _url = null;
+   private String _user = null;
+   private String _passwd = null;
+
+   // storage backend every menu goes through.
+   private ProfStore _store = null;
+
+   // opt-in cache of query results, null when disabled.
+   private QueryCache _cache = null;
+
+   // background message archiver, null when not running.
+   private Thread _archiver = null;
+
+   // routes reads to a streaming replica, null when there is none.
+   private ReplicaRouter _router = null;
+
+   // inbox and request caches of the logged in users.
+   private Map<String, SessionCache> _sessions = new HashMap<String, SessionCache>();
+
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
    static BufferedReader in = new BufferedReader(
                                 new InputStreamReader(System.in));
 
+   // buffered console output, -Dprofnetwork.page.rows=N rows per page
+   static ResultRenderer screen = new ResultRenderer(in, Integer.getInteger("profnetwork.page.rows", 20));
+
    /**
     * Creates a new instance of ProfNetwork
     *
@@ -59,7 +87,17 @@ public class ProfNetwork {
          System.out.println ("Connection URL: " + url + "\n");
 
          // obtain a physical connection
+         this._url = url;
+         this._user = user;
+         this._passwd = passwd;
          this._connection = DriverManager.getConnection(url, user, passwd);
+         this._store = new JdbcStore(this);
+
+         // -Dprofnetwork.cache.size=N turns on the query result cache
+         int cacheSize = Integer.getInteger("profnetwork.cache.size", 0);
+         if (cacheSize > 0){
+            enableQueryCache(cacheSize, Long.getLong("profnetwork.cache.ttl", 5000L));
+         }//end if
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -68,24 +106,234 @@ public class ProfNetwork {
       }//end catch
    }//end ProfNetwork
 
+   /**
+    * Creates a new instance of ProfNetwork without a database connection
+    *
+    * @param store the storage backend used by every menu
+    */
+   public ProfNetwork (ProfStore store) {
+      this._store = store;
+   }//end ProfNetwork
+
+   /**
+    * Replaces the storage backend, e.g. with a ShardedStore, closing the
+    * current one.
+    */
+   public void useStore (ProfStore store) {
+      if (this._store != null){
+         this._store.close ();
+      }//end if
+      this._store = store;
+   }
+
+   /**
+    * @return the storage backend used by every menu
+    */
+   public ProfStore store () {
+      return this._store;
+   }
+
+   /**
+    * Serves repeated queries from a size bounded cache.  Updates evict the
+    * cached results of the tables they write.
+    *
+    * @param maxEntries the most results kept
+    * @param ttl how long a result may be served, in milliseconds
+    */
+   public void enableQueryCache (int maxEntries, long ttl) {
+      this._cache = new QueryCache(maxEntries, ttl);
+      // FRIENDS is maintained by the triggers on CONNECTION_USR
+      this._cache.derive("connection_usr", "friends");
+   }
+
+   /**
+    * Sends reads outside transactions to a streaming replica once it has
+    * replayed every write made through this object.
+    *
+    * @param url the JDBC URL of the replica
+    * @param maxLag the largest replay lag reads accept, in milliseconds
+    * @see ReplicaRouter
+    */
+   public void useReplica (String url, long maxLag) {
+      this._router = new ReplicaRouter(url, this._user, this._passwd, maxLag);
+   }
+
+   /**
+    * Makes later reads wait for the writes another session just announced,
+    * e.g. through a notification.
+    *
+    * @param primary a connection to the primary to read its WAL position
+    */
+   public void otherWrote (Connection primary) throws SQLException {
+      if (this._router != null){
+         this._router.wrote(primary);
+      }//end if
+   }
+
+   /*
+    * @return the replica when the router lets it serve a read, otherwise
+    *         the primary
+    **/
+   private Connection readConnection () throws SQLException {
+      if (this._router == null || !this._connection.getAutoCommit ())
+         return this._connection;
+      Connection replica = this._router.route (this._connection);
+      return replica != null ? replica : this._connection;
+   }
+
+   /**
+    * Starts the archiver when -Dprofnetwork.archive.window=N is set, to
+    * archive deleted messages N msgIds at a time.
+    */
+   public void startConfiguredArchiver () {
+      int archiveWindow = Integer.getInteger("profnetwork.archive.window", 0);
+      if (archiveWindow > 0){
+         startArchiver(archiveWindow, Integer.getInteger("profnetwork.archive.days", 0),
+                       Double.parseDouble(System.getProperty("profnetwork.archive.duty", "0.1")));
+      }//end if
+   }
+
+   /**
+    * Starts archiving deleted messages on a daemon thread.
+    *
+    * @see MessageArchiver
+    */
+   public void startArchiver (int window, int olderThanDays, double duty) {
+      this._archiver = new Thread(new MessageArchiver(this, window, olderThanDays, duty), "ProfNetwork archiver");
+      this._archiver.setDaemon(true);
+      this._archiver.start();
+   }
+
+   /**
+    * Evicts the cached results that read a table, for changes this
+    * connection did not make itself.
+    */
+   public void invalidateTable (String table) {
+      if (this._cache != null){
+         this._cache.invalidateTable(table);
+      }//end if
+   }
+
+   /**
+    * Opens another physical connection to the same database, for work that
+    * must not share the main connection such as background threads.
+    *
+    * @return the new connection, the caller closes it
+    * @throws java.sql.SQLException when failed to make a connection, or
+    *         when the users are sharded and this database holds none of
+    *         them; such work runs once per shard, see ShardedStore.nodes
+    */
+   public Connection openConnection () throws SQLException {
+      if (this._url == null)
+         throw new SQLException("Not connected to a database");
+      if (this._store instanceof ShardedStore)
+         throw new SQLException("Not available with -Dprofnetwork.shards, the data lives on the shards");
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }
+
+   /**
+    * Starts caching the inbox and requests of a user who just logged in.
+    */
+   public SessionCache openSession (String user) throws SQLException {
+      SessionCache session = new SessionCache(this._store, user);
+      this._sessions.put(user, session);
+      return session;
+   }
+
+   /**
+    * @return the cache of a logged in user
+    */
+   public SessionCache session (String user) {
+      return this._sessions.get(user);
+   }
+
+   public void closeSession (String user) {
+      SessionCache session = this._sessions.remove(user);
+      if (session != null){
+         session.close ();
+      }//end if
+   }
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
     * @param sql the input SQL string
+    * @return the number of rows changed
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
+   public int executeUpdate (String sql) throws SQLException {
+      long start = System.nanoTime ();
       // creates a statement object
       Statement stmt = this._connection.createStatement ();
 
       // issues the update instruction
-      stmt.executeUpdate (sql);
+      int rowCount = stmt.executeUpdate (sql);
 
       // close the instruction
       stmt.close ();
+      if (this._cache != null)
+         this._cache.invalidate (sql);
+      if (this._router != null && this._connection.getAutoCommit () && rowCount != 0)
+         this._router.wrote ();
+      Metrics.time (MessageArchiver.busy () ? "sql.update.archiving" : "sql.update", System.nanoTime () - start);
+      return rowCount;
    }//end executeUpdate
 
+   /**
+    * Method to execute several update SQL statements in a single round trip.
+    *
+    * @param sql the input SQL strings
+    * @return the number of rows changed by each statement
+    * @throws java.sql.SQLException when an update failed
+    */
+   public int[] executeBatch (List<String> sql) throws SQLException {
+      // creates a statement object
+      Statement stmt = this._connection.createStatement ();
+
+      // queues every instruction and sends them together
+      for (String s : sql)
+         stmt.addBatch (s);
+      int[] rowCounts = stmt.executeBatch ();
+
+      // close the instruction
+      stmt.close ();
+      if (this._cache != null)
+         for (String s : sql)
+            this._cache.invalidate (s);
+      if (this._router != null && this._connection.getAutoCommit ())
+         this._router.wrote ();
+      return rowCounts;
+   }//end executeBatch
+
+   /**
+    * Starts a transaction, every update up to commit or rollback is part of it.
+    */
+   public void beginTransaction () throws SQLException {
+      this._connection.setAutoCommit (false);
+   }
+
+   /**
+    * Commits the current transaction and goes back to auto-commit.
+    */
+   public void commit () throws SQLException {
+      this._connection.commit ();
+      this._connection.setAutoCommit (true);
+      if (this._router != null)
+         this._router.wrote ();
+   }
+
+   /**
+    * Rolls back the current transaction and goes back to auto-commit.
+    */
+   public void rollback () throws SQLException {
+      this._connection.rollback ();
+      this._connection.setAutoCommit (true);
+      // results read inside the transaction may never have existed
+      if (this._cache != null)
+         this._cache.clear ();
+   }
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
@@ -102,30 +350,16 @@ public class ProfNetwork {
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
+      // lays the rows out in columns, a page per screen.
+      int rowCount;
+      try{
+         rowCount = screen.table (rs);
+         screen.flush ();
+      }catch (IOException e){
+         throw new SQLException (e.getMessage ());
+      }finally{
+         stmt.close ();
+      }
       return rowCount;
    }//end executeQuery
 
@@ -139,11 +373,28 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      String key = null;
+      if (this._cache != null){
+         key = QueryCache.normalize (query);
+         List<List<String>> cached = this._cache.get (key);
+         if (cached != null)
+            return cached;
+      }//end if
+      long start = System.nanoTime ();
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+      // reads outside transactions may go to the replica
+      Connection connection = readConnection ();
+      Statement stmt;
+      ResultSet rs;
+      try{
+         stmt = connection.createStatement ();
+         rs = stmt.executeQuery (query);
+      }catch (SQLException e){
+         if (connection == this._connection || !this._router.failedWith (e))
+            throw e;
+         stmt = this._connection.createStatement ();
+         rs = stmt.executeQuery (query);
+      }//end try
 
       /*
        ** obtains the metadata object for the returned result set.  The metadata
@@ -163,6 +414,9 @@ public class ProfNetwork {
          result.add(record);
       }//end while
       stmt.close ();
+      Metrics.time (MessageArchiver.busy () ? "sql.query.archiving" : "sql.query", System.nanoTime () - start);
+      if (key != null)
+         this._cache.put (key, result);
       return result;
    }//end executeQueryAndReturnResult
 
@@ -175,11 +429,28 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+       String key = null;
+       if (this._cache != null){
+          key = "exists " + QueryCache.normalize (query);
+          List<List<String>> cached = this._cache.get (key);
+          if (cached != null)
+             return cached.size ();
+       }//end if
+       long start = System.nanoTime ();
+
+       // reads outside transactions may go to the replica
+       Connection connection = readConnection ();
+       Statement stmt;
+       ResultSet rs;
+       try{
+          stmt = connection.createStatement ();
+          rs = stmt.executeQuery (query);
+       }catch (SQLException e){
+          if (connection == this._connection || !this._router.failedWith (e))
+             throw e;
+          stmt = this._connection.createStatement ();
+          rs = stmt.executeQuery (query);
+       }//end try
 
        int rowCount = 0;
 
@@ -188,6 +459,14 @@ public class ProfNetwork {
           rowCount++;
        }//end while
        stmt.close ();
+       Metrics.time (MessageArchiver.busy () ? "sql.query.archiving" : "sql.query", System.nanoTime () - start);
+       if (key != null){
+          // only whether a row exists is kept
+          List<List<String>> rows = new ArrayList<List<String>>();
+          if (rowCount > 0)
+             rows.add(new ArrayList<String>());
+          this._cache.put (key, rows);
+       }//end if
        return rowCount;
    }
 
@@ -213,6 +492,15 @@ public class ProfNetwork {
     * Method to close the physical connection if it is open.
     */
    public void cleanup(){
+      if (this._archiver != null){
+         this._archiver.interrupt ();
+      }//end if
+      if (this._router != null){
+         this._router.close ();
+      }//end if
+      if (this._store != null){
+         this._store.close ();
+      }//end if
       try{
          if (this._connection != null){
             this._connection.close ();
@@ -228,26 +516,83 @@ public class ProfNetwork {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      boolean memory = args.length >= 1 && args[0].equals("-memory");
+      // offline jobs run instead of the menus when named after the login
+      String command = !memory && args.length > 3 ? args[3] : null;
+      boolean valid = memory ? args.length <= 2 : args.length == 3 ||
+         "export-graph".equals(command) && args.length >= 6 && args.length <= 8 ||
+         "graph-stats".equals(command) && args.length <= 5 ||
+         "migrate".equals(command) && args.length >= 5 && args.length <= 6 ||
+         "rebalance".equals(command);
+      if (!valid) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             ProfNetwork.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user>\n" +
+            "   or: " +
+            "java [-classpath <classpath>] " +
+            ProfNetwork.class.getName () +
+            " <dbname> <port> <user> export-graph <directory> <partitions> [csv|bin] [gzip]\n" +
+            "   or: " +
+            "java [-classpath <classpath>] " +
+            ProfNetwork.class.getName () +
+            " <dbname> <port> <user> graph-stats [threads]\n" +
+            "   or: " +
+            "java [-classpath <classpath>] " +
+            ProfNetwork.class.getName () +
+            " <dbname> <port> <user> migrate <directory> [version]\n" +
+            "   or: " +
+            "java [-classpath <classpath>] " +
+            ProfNetwork.class.getName () +
+            " <dbname> <port> <user> rebalance [drained port ...]\n" +
+            "   or: " +
+            "java [-classpath <classpath>] " +
+            ProfNetwork.class.getName () +
+            " -memory [journal file]");
          return;
       }//end if
 
       Greeting();
       ProfNetwork esql = null;
       try{
-         // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
-         // instantiate the ProfNetwork object and creates a physical
-         // connection.
-         String dbname = args[0];
-         String dbport = args[1];
-         String user = args[2];
-         esql = new ProfNetwork (dbname, dbport, user, "");
+         if (memory) {
+            // keep everything in this process, journaled when a file is given.
+            esql = new ProfNetwork (args.length == 2 ?
+               new MemoryStore (new File (args[1]), false) : new MemoryStore ());
+         }
+         else {
+            // use postgres JDBC driver.
+            Class.forName ("org.postgresql.Driver").newInstance ();
+            // instantiate the ProfNetwork object and creates a physical
+            // connection.
+            String dbname = args[0];
+            String dbport = args[1];
+            String user = args[2];
+            esql = new ProfNetwork (dbname, dbport, user, "");
+            // -Dprofnetwork.shards=port,port,... spreads the users over one
+            // database per port, see sql/scripts/create_shards.sh
+            String shards = System.getProperty ("profnetwork.shards");
+            if (shards != null) {
+               esql.useStore (ShardedStore.connect (dbname, shards.split (","), user, ""));
+            }//end if
+            // every shard archives its own messages
+            for (ProfNetwork node : Nodes (esql)) {
+               node.startConfiguredArchiver ();
+            }//end for
+            // -Dprofnetwork.replica.port=N reads from a streaming replica on
+            // port N while it is at most -Dprofnetwork.replica.maxlag ms behind
+            String replica = System.getProperty ("profnetwork.replica.port");
+            if (replica != null) {
+               esql.useReplica ("jdbc:postgresql://localhost:" + replica + "/" + dbname,
+                                Long.getLong ("profnetwork.replica.maxlag", 1000L));
+            }//end if
+         }//end if
+
+         if (command != null) {
+            RunCommand (esql, args);
+            return;
+         }//end if
 
          boolean keepon = true;
          while(keepon) {
@@ -257,15 +602,18 @@ public class ProfNetwork {
             System.out.println("---------");
             System.out.println("1. Create user");
             System.out.println("2. Log in");
+            System.out.println("3. Statistics");
             System.out.println("9. < EXIT");
             String authorisedUser = null;
             switch (readChoice()){
                case 1: CreateUser(esql); break;
                case 2: authorisedUser = LogIn(esql); break;
+               case 3: Statistics(); break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
             if (authorisedUser != null) {
+              SessionCache session = esql.openSession(authorisedUser);
               boolean usermenu = true;
               while(usermenu) {
                 ClearScreen();
@@ -274,9 +622,11 @@ public class ProfNetwork {
                 System.out.println("1. View Friends");
                 System.out.println("2. Update Profile");
                 System.out.println("3. Send Friend Request");
-                System.out.println("4. Accept/Deny Friend Request");
+                System.out.println("4. Accept/Deny Friend Request" + NewCount(session.newRequests()));
                 System.out.println("5. Search for a user");
-                System.out.println("6. View Messages");
+                System.out.println("6. View Messages" + NewCount(session.newMessages()));
+                System.out.println("7. Search Messages");
+                System.out.println("8. Export my data");
                 System.out.println(".........................");
                 System.out.println("9. Log out");
                 switch (readChoice()){
@@ -286,10 +636,13 @@ public class ProfNetwork {
                    case 4: AcceptDenyRequests(esql, authorisedUser); break;
                    case 5: SearchUsers(esql, authorisedUser); break;
                    case 6: ViewMessages(esql, authorisedUser); break;
+                   case 7: SearchMessages(esql, authorisedUser); break;
+                   case 8: ExportData(esql, authorisedUser); break;
                    case 9: usermenu = false; break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
               }
+              esql.closeSession(authorisedUser);
             }
          }//end while
       }catch(Exception e) {
@@ -298,7 +651,7 @@ public class ProfNetwork {
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
-               System.out.print("Disconnecting from database...");
+               System.out.print(memory ? "Closing store..." : "Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
             }//end if
@@ -308,6 +661,72 @@ public class ProfNetwork {
       }//end try
    }//end main
 
+   /*
+    * Runs the offline job named on the command line
+    **/
+   public static void RunCommand(ProfNetwork esql, String[] args) throws Exception {
+      long start = System.nanoTime ();
+      if (args[3].equals ("export-graph")) {
+         // dump CONNECTION_USR in partitions
+         Exporter exporter = new Exporter (esql, args.length > 6 && args[6].equals ("bin"),
+                                           args.length > 7 && args[7].equals ("gzip"));
+         List<File> files = exporter.exportGraph (new File (args[4]), Integer.parseInt (args[5]));
+         System.out.printf ("Exported %d files in %.1f s\n", files.size (), (System.nanoTime () - start) / 1e9);
+      }
+      else if (args[3].equals ("graph-stats")) {
+         int threads = args.length > 4 ? Integer.parseInt (args[4]) : Runtime.getRuntime ().availableProcessors ();
+         int runId = new GraphStats (esql, threads).run ();
+         System.out.printf ("Stored graph statistics as run %d in %.1f s\n", runId, (System.nanoTime () - start) / 1e9);
+      }
+      else if (args[3].equals ("migrate")) {
+         // -Dprofnetwork.migrate.pause=N waits N ms between backfill batches.
+         // Every shard has its own schema, they are migrated one by one
+         for (ProfNetwork node : Nodes (esql)) {
+            Migrator migrator = new Migrator (node, new File (args[4]), Long.getLong ("profnetwork.migrate.pause", 50L));
+            int version = migrator.migrate (args.length > 5 ? Integer.parseInt (args[5]) : Integer.MAX_VALUE);
+            System.out.printf ("Schema is at version %d\n", version);
+         }//end for
+      }
+      else if (args[3].equals ("rebalance")) {
+         if (!(esql.store () instanceof ShardedStore)) {
+            throw new SQLException ("rebalance needs -Dprofnetwork.shards");
+         }//end if
+         // the ports after the command are shards being removed.  Run it
+         // with the application stopped, see ShardedStore.rebalance
+         List<ProfNetwork> drained = new ArrayList<ProfNetwork> ();
+         for (int i = 4; i < args.length; ++i) {
+            drained.add (new ProfNetwork (args[0], args[i], args[2], ""));
+         }//end for
+         ShardedStore sharded = (ShardedStore) esql.store ();
+         int moved = sharded.rebalance (drained);
+         for (ProfNetwork node : drained) {
+            node.cleanup ();
+         }//end for
+         // connections written on one of their two shards only
+         int repaired = sharded.repairConnections ();
+         System.out.printf ("Moved %d users and repaired %d connections in %.1f s\n",
+                            moved, repaired, (System.nanoTime () - start) / 1e9);
+      }//end if
+      Metrics.report (System.out);
+   }//end RunCommand
+
+   /*
+    * The databases holding the users: each shard, or esql itself
+    **/
+   public static List<ProfNetwork> Nodes(ProfNetwork esql){
+      if (esql.store () instanceof ShardedStore) {
+         return ((ShardedStore) esql.store ()).nodes ();
+      }//end if
+      return Collections.singletonList (esql);
+   }
+
+   /*
+    * Formats the " (N new)" suffix of a menu entry
+    **/
+   public static String NewCount(int count){
+      return count > 0 ? " (" + count + " new)" : "";
+   }
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -349,9 +768,7 @@ public class ProfNetwork {
          String email = in.readLine();
 
       	 //Creating empty contact\block lists for a user
-      	 String query = String.format("INSERT INTO USR (userId, password, email) VALUES ('%s','%s','%s')", login, password, email);
-
-         esql.executeUpdate(query);
+         esql.store().createUser(login, password, email);
          System.out.println ("User successfully created!");
          Sleep(1000);
       }catch(Exception e){
@@ -359,6 +776,23 @@ public class ProfNetwork {
       }
    }//end
 
+   /*
+    * Prints the counters and timers collected so far
+    **/
+   public static void Statistics(){
+      try{
+         ClearScreen();
+         System.out.println("STATISTICS");
+         System.out.println("---------------");
+         Metrics.report(System.out);
+         System.out.println(".........................");
+         System.out.print("Press enter to go back");
+         in.readLine();
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }
+   }
+
    public static void ClearScreen(){
      try{
        final String ANSI_CLS = "\u001b[2J";
@@ -385,14 +819,7 @@ public class ProfNetwork {
 
    public static Boolean UserExists(ProfNetwork esql, String uname){
      try{
-       String query = String.format("SELECT * FROM USR WHERE userId = '%s'", uname);
-       int userNum = esql.executeQuery(query);
-       if (userNum > 0){
-        return true;
-       }
-       else{
-         return false;
-       }
+       return esql.store().userExists(uname);
      }catch(Exception e){
        System.err.println (e.getMessage ());
        return null;
@@ -401,14 +828,7 @@ public class ProfNetwork {
 
    public static Boolean ConnectionExists(ProfNetwork esql, String authorisedUser, String uname){
      try{
-       String query = String.format("SELECT * FROM CONNECTION_USR WHERE (userid = '%s' AND connectionid = '%s') OR (userid = '%s' AND connectionid = '%s')", uname, authorisedUser, authorisedUser, uname);
-       int num = esql.executeQuery(query);
-       if (num > 0){
-         return true;
-       }
-       else{
-         return false;
-       }
+       return esql.store().connectionExists(authorisedUser, uname);
      }catch(Exception e){
        System.err.println (e.getMessage ());
        return null;
@@ -417,9 +837,7 @@ public class ProfNetwork {
 
    public static Integer NumConnections(ProfNetwork esql, String uname){
      try{
-       String query = String.format("SELECT * FROM CONNECTION_USR WHERE (userId = '%s' OR connectionid = '%s') AND status = '1'", uname, uname);
-       int userNum = esql.executeQuery(query);
-       return userNum;
+       return esql.store().numConnections(uname);
      }catch(Exception e){
        System.err.println(e.getMessage());
        return null;
@@ -428,16 +846,7 @@ public class ProfNetwork {
 
    public static List<String> GetConnections(ProfNetwork esql, String authorisedUser){
      try{
-       List<String> connections = new ArrayList<String>();
-       String query = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND status = '1'", authorisedUser);
-       for (List<String> connection : esql.executeQueryAndReturnResult(query)){
-         connections.add(connection.get(1));
-       }
-       query = String.format("SELECT * FROM CONNECTION_USR WHERE connectionid = '%s' AND status = '1'", authorisedUser);
-       for (List<String> connection : esql.executeQueryAndReturnResult(query)){
-         connections.add(connection.get(0));
-       }
-       return connections;
+       return esql.store().getConnections(authorisedUser);
      }catch(Exception e){
        System.err.println(e.getMessage());
        return null;
@@ -446,58 +855,111 @@ public class ProfNetwork {
 
    public static Boolean WithinThreeConnections(ProfNetwork esql, String authorisedUser, String uname){
      try{
+       List<String> target = new ArrayList<String>();
+       target.add(uname);
+       return ConnectionPaths.distances(esql.store(), authorisedUser, target, 3).containsKey(uname);
+     }catch(Exception e){
+       System.err.println (e.getMessage ());
+       return null;
+     }
+   }
 
-       Set<String> withinThreeConnections = new HashSet<String>();
-       // First level of connection
-       String oneConnectionQuery = String.format("SELECT connectionid FROM CONNECTION_USR WHERE userid = '%s' AND status = '1' UNION SELECT userid FROM CONNECTION_USR WHERE connectionid = '%s' AND status = '1'", authorisedUser, authorisedUser);
-       List<List<String>> OneConnections = esql.executeQueryAndReturnResult(oneConnectionQuery);
-       for (List<String> OneConnection : OneConnections){
-         String conn = OneConnection.get(0);
-         withinThreeConnections.add(conn);
-
-         // Second level of connection
-         String twoConnectionQuery = String.format("SELECT connectionid FROM CONNECTION_USR WHERE userid = '%s' AND status = '1' UNION SELECT userid FROM CONNECTION_USR WHERE connectionid = '%s' AND status = '1'", conn, conn);
-         List<List<String>> TwoConnections = esql.executeQueryAndReturnResult(twoConnectionQuery);
-         for (List<String> TwoConnection : TwoConnections){
-           conn = TwoConnection.get(0);
-           withinThreeConnections.add(conn);
-
-           // Third level of connection
-           String threeConnectionQuery = String.format("SELECT connectionid FROM CONNECTION_USR WHERE userid = '%s' AND status = '1' UNION SELECT userid FROM CONNECTION_USR WHERE connectionid = '%s' AND status = '1'", conn, conn);;
-           List<List<String>> ThreeConnections = esql.executeQueryAndReturnResult(threeConnectionQuery);
-           for (List<String> ThreeConnection : ThreeConnections){
-             conn = ThreeConnection.get(0);
-             withinThreeConnections.add(conn);
-           }
-         }
-       }
-       if(withinThreeConnections.contains(uname)){
-         return true;
-       }
-       else{
-         return false;
-       }
+   // deepest connection level searched when explaining how two users are connected
+   static final int PATH_DEPTH = Integer.getInteger("profnetwork.path.depth", 6);
+
+   public static List<String> ConnectionPath(ProfNetwork esql, String authorisedUser, String uname){
+     try{
+       return ConnectionPaths.shortestPath(esql.store(), authorisedUser, uname, PATH_DEPTH);
+     }catch(Exception e){
+       System.err.println (e.getMessage ());
+       return null;
+     }
+   }
 
+   public static Map<String, Integer> ConnectionDistances(ProfNetwork esql, String authorisedUser, List<String> unames){
+     try{
+       return ConnectionPaths.distances(esql.store(), authorisedUser, unames, PATH_DEPTH);
      }catch(Exception e){
        System.err.println (e.getMessage ());
        return null;
      }
    }
 
+   /*
+    * Prints the chain of connections between the user and someone else
+    **/
+   public static void PrintConnectionPath(ProfNetwork esql, String authorisedUser, String uname){
+     if (uname.equals(authorisedUser)){
+       return;
+     }
+     List<String> path = ConnectionPath(esql, authorisedUser, uname);
+     if (path == null){
+       System.out.printf("You are not within %d connection levels of %s\n", PATH_DEPTH, uname);
+     }
+     else{
+       StringBuilder chain = new StringBuilder("You");
+       for (String conn : path.subList(1, path.size())){
+         chain.append(" -> ").append(conn);
+       }
+       System.out.printf("How you're connected (%d levels): %s\n", path.size() - 1, chain);
+     }
+   }
+
+   public static List<String> MutualConnections(ProfNetwork esql, String authorisedUser, String uname){
+     try{
+       return esql.store().mutualConnections(authorisedUser, uname);
+     }catch(Exception e){
+       System.err.println(e.getMessage());
+       return null;
+     }
+   }
+
+   public static Map<String, Integer> MutualConnectionCounts(ProfNetwork esql, String authorisedUser, List<String> unames){
+     try{
+       return esql.store().mutualConnectionCounts(authorisedUser, unames);
+     }catch(Exception e){
+       System.err.println(e.getMessage());
+       return null;
+     }
+   }
+
+   /*
+    * Prints "N mutual connections" followed by their logins, nothing when
+    * looking at yourself
+    **/
+   public static void PrintMutualConnections(ProfNetwork esql, String authorisedUser, String uname){
+     List<String> mutual = MutualConnections(esql, authorisedUser, uname);
+     if (mutual == null || uname.equals(authorisedUser)){
+       return;
+     }
+     System.out.printf("%d mutual connection%s\n", mutual.size(), mutual.size() == 1 ? "" : "s");
+     for (String conn : mutual){
+       System.out.println("\t" + conn);
+     }
+     System.out.println("---------------");
+   }
+
    public static void SendMessage(ProfNetwork esql, String authorisedUser, String connectionId, String contents){
      try{
-       String query = String.format("INSERT INTO message(senderid, receiverid, contents, deletestatus, status) VALUES('%s', '%s', '%s', 0, 0)", authorisedUser, connectionId, contents);
-       esql.executeUpdate(query);
+       esql.store().sendMessage(authorisedUser, connectionId, contents);
      }catch(Exception e){
        System.err.println (e.getMessage ());
        return;
      }
    }
 
-   public static void DeleteMessage(ProfNetwork esql, String msgid){
+   public static void DeleteMessage(ProfNetwork esql, String authorisedUser, String msgid){
      try{
-       String query = String.format("UPDATE message SET deletestatus = '1' WHERE msgid = '%s'", msgid);
-       esql.executeUpdate(query);
+       esql.store().deleteMessage(authorisedUser, msgid);
+     }catch(Exception e){
+       System.err.println (e.getMessage ());
+       return;
+     }
+   }
+
+   public static void DeleteSentMessage(ProfNetwork esql, String authorisedUser, String receiver, String msgid){
+     try{
+       esql.store().deleteSentMessage(authorisedUser, receiver, msgid);
      }catch(Exception e){
        System.err.println (e.getMessage ());
        return;
@@ -512,24 +974,20 @@ public class ProfNetwork {
        Boolean viewMessages = true;
        List<List <String>> messages = null;
        while(viewMessages){
-         ClearScreen();
          if(redoQuery){
-           String query = String.format("SELECT msgid, senderid, contents, deletestatus FROM message WHERE receiverid = '%s'", authorisedUser);
-           messages = esql.executeQueryAndReturnResult(query);
+           messages = esql.session(authorisedUser).inbox();
          }
+         screen.clear().line("Your inbox");
+         List<List<String>> rows = new ArrayList<List<String>>();
          Integer i = 0;
-         System.out.println("Your inbox");
          for (List<String> message : messages){
            if (message.get(3).equals("0")){
-             System.out.println("-------Message " + Integer.toString(i + 1) + "------");
-             System.out.println("From: " + message.get(1));
-             System.out.println("\t" + message.get(2));
              i = i + 1;
+             rows.add(Arrays.asList(i + ".", message.get(1), message.get(2)));
            }
-
          }
-         System.out.println("...................");
-         System.out.printf("%d. Go back\n", i + 1);
+         screen.table(Arrays.asList("#", "From", "Message"), rows);
+         screen.line("...................").line((i + 1) + ". Go back").flush();
          Integer choice = readChoice();
          if(choice == i + 1){
            // User is choosing to go back.
@@ -545,7 +1003,8 @@ public class ProfNetwork {
            System.out.println("2. Go back");
            switch (readChoice()){
              case 1:
-              DeleteMessage(esql, messages.get(choice-1).get(0));
+              DeleteMessage(esql, authorisedUser, messages.get(choice-1).get(0));
+              esql.session(authorisedUser).messageDeleted(messages.get(choice-1).get(0));
              break;
              case 2:
               break;
@@ -568,6 +1027,74 @@ public class ProfNetwork {
      }
    }
 
+   // messages shown per page of search results
+   static final int SEARCH_PAGE = 10;
+
+   public static void SearchMessages(ProfNetwork esql, String authorisedUser){
+     try{
+       System.out.print("\tEnter words to search for: ");
+       String terms = in.readLine();
+       Integer page = 0;
+       Boolean viewResults = true;
+       while(viewResults){
+         List<List<String>> results = esql.store().searchMessages(authorisedUser, terms, SEARCH_PAGE + 1, page * SEARCH_PAGE);
+         Boolean more = results.size() > SEARCH_PAGE;
+         screen.clear().line(String.format("Messages matching \"%s\" (page %d)", terms, page + 1)).line("---------------");
+         if (results.size() == 0){
+           screen.line("No messages found.");
+         }
+         else{
+           List<List<String>> rows = new ArrayList<List<String>>();
+           for (List<String> result : results.subList(0, Math.min(results.size(), SEARCH_PAGE))){
+             String other = result.get(1).equals(authorisedUser) ? "To: " + result.get(2) : "From: " + result.get(1);
+             rows.add(Arrays.asList(other, result.get(3), result.get(4)));
+           }
+           screen.table(Arrays.asList("With", "Sent", "Message"), rows);
+         }
+         screen.line("...................").line("1. Next page").line("2. Previous page").line("3. Go back").flush();
+         switch (readChoice()){
+           case 1:
+             if (more) page++;
+             break;
+           case 2:
+             if (page > 0) page--;
+             break;
+           case 3:
+             viewResults = false;
+             break;
+           default :
+             System.out.println("Unrecognized choice!"); break;
+         }
+       }
+     }catch(Exception e){
+       System.err.println (e.getMessage ());
+       return;
+     }
+   }
+
+   /*
+    * Writes the user's profile, connections and messages to files
+    **/
+   public static void ExportData(ProfNetwork esql, String authorisedUser){
+     try{
+       System.out.print("\tEnter a directory to export to: ");
+       String dir = in.readLine();
+       System.out.print("\tBinary format instead of CSV? (y/n): ");
+       boolean binary = in.readLine().trim().equalsIgnoreCase("y");
+       System.out.print("\tCompress with gzip? (y/n): ");
+       boolean gzip = in.readLine().trim().equalsIgnoreCase("y");
+       List<File> files = new Exporter(esql, binary, gzip).exportUser(authorisedUser, new File(dir));
+       for (File file : files){
+         System.out.println(file.getPath() + "\t" + file.length() + " bytes");
+       }
+       System.out.println("Press enter to continue...");
+       in.readLine();
+     }catch(Exception e){
+       System.err.println (e.getMessage ());
+       return;
+     }
+   }
+
    public static String LogIn(ProfNetwork esql){
       try{
          System.out.print("\tEnter user login: ");
@@ -575,10 +1102,7 @@ public class ProfNetwork {
          System.out.print("\tEnter user password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", login, password);
-         int userNum = esql.executeQuery(query);
-
-         if (userNum > 0){
+         if (esql.store().checkCredentials(login, password)){
            return login;
          }
          else{
@@ -594,8 +1118,7 @@ public class ProfNetwork {
 
    public static void AcceptRequest(ProfNetwork esql, String authorisedUser, String friend){
      try{
-       String query = String.format("UPDATE CONNECTION_USR SET status = '1' WHERE userid = '%s' AND connectionid = '%s' AND status = '0'", friend, authorisedUser);
-       esql.executeUpdate(query);
+       esql.store().acceptRequest(authorisedUser, friend);
      }catch(Exception e){
        System.err.println (e.getMessage ());
        return;
@@ -604,76 +1127,105 @@ public class ProfNetwork {
 
    public static void DenyRequest(ProfNetwork esql, String authorisedUser, String friend){
      try{
-       String query = String.format("UPDATE CONNECTION_USR SET status = '2' WHERE userid = '%s' AND connectionid = '%s' AND status = '0'", friend, authorisedUser);
-       esql.executeUpdate(query);
+       esql.store().denyRequest(authorisedUser, friend);
      }catch(Exception e){
        System.err.println (e.getMessage ());
        return;
      }
    }
 
-   public static void EditPassword(ProfNetwork esql, String authorisedUser){
+   public static void EditPassword(ProfileEdit edit){
      try{
        System.out.print("\tWhat do you want your new password to be? ");
-       String password = in.readLine();
-       String query = String.format("UPDATE USR SET password = '%s' WHERE userid = '%s'", password, authorisedUser);
-       esql.executeUpdate(query);
-       System.out.println("\tUpdating password...");
+       edit.setPassword(in.readLine());
      }catch(Exception e){
        System.err.printf("\t%s\n", e.getMessage ());
-       return;
-     }finally {
-       Sleep(1500);
      }
    }
 
-   public static void EditEmail(ProfNetwork esql, String authorisedUser){
+   public static void EditEmail(ProfileEdit edit){
      try{
        System.out.print("\tWhat do you want your new email to be? ");
-       String email = in.readLine();
-       String query = String.format("UPDATE USR SET email = '%s' WHERE userid = '%s'", email, authorisedUser);
-       esql.executeUpdate(query);
-       System.out.println("\tUpdating email...");
+       edit.setEmail(in.readLine());
      }catch(Exception e){
        System.err.printf("\t%s\n", e.getMessage ());
-       return;
-     }finally {
-       Sleep(1500);
      }
    }
 
-   public static void EditName(ProfNetwork esql, String authorisedUser){
+   public static void EditName(ProfileEdit edit){
      try{
        System.out.print("\tWhat do you want your new name to be? ");
-       String name = in.readLine();
-       String query = String.format("UPDATE USR SET name = '%s' WHERE userid = '%s'", name, authorisedUser);
-       esql.executeUpdate(query);
-       System.out.println("\tUpdating name...");
+       edit.setName(in.readLine());
      }catch(Exception e){
        System.err.printf("\t%s\n", e.getMessage ());
-       return;
-     }finally {
-       Sleep(1500);
      }
    }
 
-   public static void EditBirthday(ProfNetwork esql, String authorisedUser){
+   public static void EditBirthday(ProfileEdit edit){
+     System.out.print("\tWhat month were you born? ");
+     Integer month = readChoice();
+     System.out.print("\tWhat day were you born? ");
+     Integer day = readChoice();
+     System.out.print("\tWhat year were you born? ");
+     Integer year = readChoice();
+
+     edit.setBirthday(Integer.toString(year) + "-" + Integer.toString(month) + "-" + Integer.toString(day));
+   }
+
+   /*
+    * Reads a yyyy-mm-dd date, an empty line means no date
+    **/
+   public static String readDate(String prompt) throws java.io.IOException {
+     System.out.print(prompt);
+     String date = in.readLine().trim();
+     return date.length() == 0 ? null : date;
+   }
+
+   public static void AddWork(ProfileEdit edit){
      try{
-       System.out.print("\tWhat month were you born? ");
-       Integer month = readChoice();
-       System.out.print("\tWhat day were you born? ");
-       Integer day = readChoice();
-       System.out.print("\tWhat year were you born? ");
-       Integer year = readChoice();
-
-       String date = Integer.toString(year) + "-" + Integer.toString(month) + "-" + Integer.toString(day);
-
-       String query = String.format("UPDATE USR SET dateOfBirth = '%s' WHERE userid = '%s'", date, authorisedUser);
-       esql.executeUpdate(query);
-       System.out.println("\tUpdating birthday...");
+       System.out.print("\tCompany: ");
+       String company = in.readLine();
+       System.out.print("\tRole: ");
+       String role = in.readLine();
+       System.out.print("\tLocation: ");
+       String location = in.readLine();
+       String startdate = readDate("\tStart date (yyyy-mm-dd): ");
+       String enddate = readDate("\tEnd date (yyyy-mm-dd, empty if current): ");
+       edit.addWork(company, role, location, startdate, enddate);
      }catch(Exception e){
        System.err.printf("\t%s\n", e.getMessage ());
-       return;
+     }
+   }
+
+   public static void AddEducation(ProfileEdit edit){
+     try{
+       System.out.print("\tInstitution: ");
+       String place = in.readLine();
+       System.out.print("\tMajor: ");
+       String major = in.readLine();
+       System.out.print("\tDegree: ");
+       String degree = in.readLine();
+       String startdate = readDate("\tStart date (yyyy-mm-dd): ");
+       String enddate = readDate("\tEnd date (yyyy-mm-dd, empty if ongoing): ");
+       edit.addEducation(place, major, degree, startdate, enddate);
+     }catch(Exception e){
+       System.err.printf("\t%s\n", e.getMessage ());
+     }
+   }
+
+   /*
+    * Commits the staged changes in one transaction, nothing is saved if
+    * any of them fails
+    **/
+   public static void SaveProfile(ProfNetwork esql, ProfileEdit edit){
+     try{
+       System.out.println("\tUpdating profile...");
+       esql.store().commitProfile(edit);
+     }catch(SQLException e){
+       System.err.printf("\t%s\n", e.getMessage ());
+       if ("40001".equals(e.getSQLState())){
+         System.out.println("\tYour profile was changed elsewhere, please make your changes again.");
+       }
      }finally {
        Sleep(1500);
      }
@@ -681,9 +1233,7 @@ public class ProfNetwork {
 
    public static List<List<String>> GetEductionHistory(ProfNetwork esql, String authorisedUser){
      try{
-       String query = String.format("SELECT instituitionname, major, degree, startdate, enddate FROM educational_details WHERE userid = '%s'", authorisedUser);
-       List<List<String>> edu = esql.executeQueryAndReturnResult(query);
-       return edu;
+       return esql.store().educationHistory(authorisedUser);
      }catch(Exception e){
        System.err.printf("\t%s\n", e.getMessage ());
        return null;
@@ -692,9 +1242,7 @@ public class ProfNetwork {
 
    public static List<List<String>> GetWorkHistory(ProfNetwork esql, String authorisedUser){
      try{
-       String query = String.format("SELECT company, role, location, startdate, enddate FROM work_expr WHERE userid = '%s'", authorisedUser);
-       List<List<String>> works = esql.executeQueryAndReturnResult(query);
-       return works;
+       return esql.store().workHistory(authorisedUser);
      }catch(Exception e){
        System.err.printf("\t%s\n", e.getMessage ());
        return null;
@@ -711,17 +1259,37 @@ public class ProfNetwork {
        String profId = authorisedUser;
        while(viewFriends){
          connections = GetConnections(esql, profId);
+         // score the whole page at once when browsing someone else's friends
+         Map<String, Integer> mutual = null;
+         Map<String, Integer> levels = null;
+         if (!profId.equals(authorisedUser)){
+           mutual = MutualConnectionCounts(esql, authorisedUser, connections);
+           levels = ConnectionDistances(esql, authorisedUser, connections);
+         }
 
-         ClearScreen();
-         System.out.println(profId + "'s friend's List");
-         System.out.println("---------------");
+         screen.clear().line(profId + "'s friend's List").line("---------------");
+         List<List<String>> rows = new ArrayList<List<String>>();
          Integer i = 0;
          for (String connection : connections) {
            ++i;
-           System.out.printf("%d. %s\n", i, connection);
+           List<String> row = new ArrayList<String>();
+           row.add(i + ".");
+           row.add(connection);
+           if (mutual != null && levels != null){
+             Integer level = levels.get(connection);
+             Boolean self = connection.equals(authorisedUser);
+             row.add(self ? "you" : level == null ? "not connected" : "level " + level);
+             row.add(self ? "" : mutual.get(connection) + " mutual");
+           }
+           rows.add(row);
+         }
+         if (mutual != null && levels != null){
+           screen.table(Arrays.asList("#", "Connection", "Distance", "Mutual"), rows);
          }
-         System.out.println("...................");
-         System.out.printf("%d. Go back\n", i + 1);
+         else{
+           screen.table(Arrays.asList("#", "Connection"), rows);
+         }
+         screen.line("...................").line((i + 1) + ". Go back").flush();
          Integer choice = readChoice();
          if(choice == i + 1){
            // User is choosing to go back.
@@ -738,6 +1306,8 @@ public class ProfNetwork {
            ClearScreen();
            System.out.println(connectionid + "'s profile");
            System.out.println("---------------");
+           PrintConnectionPath(esql, authorisedUser, connectionid);
+           PrintMutualConnections(esql, authorisedUser, connectionid);
            System.out.println("Education history");
            System.out.println("---------------");
            if (edus.size() == 0){
@@ -771,7 +1341,7 @@ public class ProfNetwork {
            // TODO get work history details and print them here
            System.out.println("---------------");
            System.out.printf("1. View %s's friends\n", connectionid);
-           System.out.println("2. Send a message");
+           System.out.println("2. Open conversation");
            System.out.println("3. Send connection request");
            System.out.println(".........................");
            System.out.println("4. Go back");
@@ -780,7 +1350,7 @@ public class ProfNetwork {
                profId = connectionid;
                continue;
              case 2:
-               NewMessage(esql, authorisedUser, connectionid);
+               Conversation(esql, authorisedUser, connectionid);
                break;
              case 3:
                if(connectionid.equals(authorisedUser)){
@@ -793,9 +1363,8 @@ public class ProfNetwork {
                  System.out.printf("\tYou must be within three connection levels to add %s\n", connectionid);
                }
                else {
-                 String query = String.format("INSERT INTO CONNECTION_USR(userid, connectionid, status) VALUES ('%s', '%s', '0')", authorisedUser, connectionid);
                  System.out.printf("\tSending friend request to %s...\n", connectionid);
-                 esql.executeUpdate(query);
+                 esql.store().sendRequest(authorisedUser, connectionid);
                }
                Sleep(1500);
               break;
@@ -818,6 +1387,14 @@ public class ProfNetwork {
    }
 
    public static void UpdateProfile(ProfNetwork esql, String authorisedUser){
+     ProfileEdit edit = null;
+     try{
+       edit = new ProfileEdit(authorisedUser, esql.store().profileVersion(authorisedUser));
+     }catch(Exception e){
+       System.err.printf("\t%s\n", e.getMessage ());
+       Sleep(1500);
+       return;
+     }
      Boolean updateProfile = true;
      while(updateProfile){
        ClearScreen();
@@ -827,18 +1404,39 @@ public class ProfNetwork {
        System.out.println("2. Change email");
        System.out.println("3. Change name");
        System.out.println("4. Change birthday");
+       System.out.println("5. Add work experience");
+       System.out.println("6. Add education");
+       System.out.printf("7. Save changes (%d pending)\n", edit.size());
        System.out.println(".........................");
-       System.out.println("5. Go back");
+       System.out.println("8. Go back");
        switch (readChoice()){
          case 1:
-          EditPassword(esql, authorisedUser); break;
+          EditPassword(edit); break;
          case 2:
-          EditEmail(esql, authorisedUser); break;
+          EditEmail(edit); break;
          case 3:
-          EditName(esql, authorisedUser); break;
+          EditName(edit); break;
          case 4:
-          EditBirthday(esql, authorisedUser); break;
+          EditBirthday(edit); break;
          case 5:
+          AddWork(edit); break;
+         case 6:
+          AddEducation(edit); break;
+         case 7:
+          SaveProfile(esql, edit);
+          // start over from the latest version, saved or not
+          try{
+            edit = new ProfileEdit(authorisedUser, esql.store().profileVersion(authorisedUser));
+          }catch(Exception e){
+            System.err.printf("\t%s\n", e.getMessage ());
+            updateProfile = false;
+          }
+          break;
+         case 8:
+          if (edit.size() > 0){
+            System.out.printf("\tDiscarding %d unsaved change(s)\n", edit.size());
+            Sleep(1500);
+          }
           updateProfile = false;
           break;
          default : System.out.println("Unrecognized choice!"); break;
@@ -866,6 +1464,91 @@ public class ProfNetwork {
      }
    }
 
+   // messages shown per page of a conversation
+   static final int CONVERSATION_PAGE = 10;
+
+   /*
+    * Shows the messages exchanged with a connection, newest page first
+    **/
+   public static void Conversation(ProfNetwork esql, String authorisedUser, String connectionid){
+     try{
+       // keyset of the oldest message on each page shown so far
+       List<String[]> pages = new ArrayList<String[]>();
+       pages.add(null);
+       Boolean viewConversation = true;
+       while(viewConversation){
+         String[] before = pages.get(pages.size() - 1);
+         List<List<String>> messages = esql.store().conversation(authorisedUser, connectionid,
+             before == null ? null : before[0], before == null ? 0 : Integer.parseInt(before[1]), CONVERSATION_PAGE + 1);
+         Boolean older = messages.size() > CONVERSATION_PAGE;
+         if (older){
+           messages = messages.subList(0, CONVERSATION_PAGE);
+         }
+
+         screen.clear().line("Conversation with " + connectionid).line("---------------");
+         if (messages.size() == 0){
+           screen.line("No messages yet.");
+         }
+         else{
+           // oldest at the top, like a chat
+           List<List<String>> rows = new ArrayList<List<String>>();
+           for (int i = messages.size() - 1; i >= 0; --i){
+             List<String> message = messages.get(i);
+             String from = message.get(1).equals(authorisedUser) ? "You" : message.get(1);
+             rows.add(Arrays.asList((messages.size() - i) + ".", from, message.get(3), message.get(4)));
+           }
+           screen.table(Arrays.asList("#", "From", "Sent", "Message"), rows);
+         }
+         screen.line("---------------").line("1. Write a message").line("2. Older messages").line("3. Newer messages")
+               .line("4. Delete a message").line(".........................").line("5. Go back").flush();
+         switch (readChoice()){
+           case 1:
+             NewMessage(esql, authorisedUser, connectionid);
+             // jump back to the newest page to show it
+             pages.subList(1, pages.size()).clear();
+             break;
+           case 2:
+             if (older){
+               List<String> oldest = messages.get(messages.size() - 1);
+               pages.add(new String[]{ oldest.get(3), oldest.get(0).trim() });
+             }
+             break;
+           case 3:
+             if (pages.size() > 1){
+               pages.remove(pages.size() - 1);
+             }
+             break;
+           case 4:
+             System.out.println("\tWhich message?");
+             Integer number = readChoice();
+             if (number < 1 || number > messages.size()){
+               System.out.println("\tInvalid Selection");
+               break;
+             }
+             List<String> message = messages.get(messages.size() - number);
+             String msgid = message.get(0).trim();
+             if (message.get(1).equals(authorisedUser)){
+               // gone from this view, the receiver still has it
+               DeleteSentMessage(esql, authorisedUser, connectionid, msgid);
+             }
+             else{
+               DeleteMessage(esql, authorisedUser, msgid);
+               esql.session(authorisedUser).messageDeleted(msgid);
+             }
+             break;
+           case 5:
+             viewConversation = false;
+             break;
+           default :
+             System.out.println("Unrecognized choice!"); break;
+         }
+       }
+     }catch(Exception e){
+       System.err.println (e.getMessage ());
+       return;
+     }
+   }
+
    public static void SendConnection(ProfNetwork esql, String authorisedUser, String connectionid){
      try{
        if (ConnectionExists(esql, authorisedUser, connectionid)){
@@ -875,8 +1558,7 @@ public class ProfNetwork {
          System.out.println("\tYou must be within 3 connection levels to add " + connectionid);
        }
        else {
-         String query = String.format("INSERT INTO connection_usr(userid, connectionid, status) VALUES('%s', '%s', 0)", authorisedUser, connectionid);
-         esql.executeQuery(query);
+         esql.store().sendRequest(authorisedUser, connectionid);
          System.out.println("\tSending connection request...");
        }
      }catch(Exception e){
@@ -902,6 +1584,8 @@ public class ProfNetwork {
            ClearScreen();
            System.out.println(uname + "'s PROFILE");
            System.out.println("---------------");
+           PrintConnectionPath(esql, authorisedUser, uname);
+           PrintMutualConnections(esql, authorisedUser, uname);
            System.out.println("1. Request connection");
            System.out.println("2. Send Message");
            System.out.println(".........................");
@@ -948,9 +1632,8 @@ public class ProfNetwork {
          System.out.printf("\tYou must be within three connection levels to add %s\n", uname);
        }
        else if (UserExists(esql, uname)) {
-        String query = String.format("INSERT INTO CONNECTION_USR(userid, connectionid, status) VALUES ('%s', '%s', '0')", authorisedUser, uname);
         System.out.printf("\tSending friend request to %s...\n", uname);
-        esql.executeUpdate(query);
+        esql.store().sendRequest(authorisedUser, uname);
        }
        else {
         System.out.println("\tUser does not exist");
@@ -968,11 +1651,10 @@ public class ProfNetwork {
      try{
        Boolean acceptRequests = true;
        Boolean redoQuery = true;
-       List<List <String> > unnaccpetedRequests = null;
+       List<String> unnaccpetedRequests = null;
         while(acceptRequests){
           if(redoQuery){
-            String query = String.format("SELECT * FROM CONNECTION_USR WHERE connectionid = '%s' AND status = '0'", authorisedUser);
-            unnaccpetedRequests = esql.executeQueryAndReturnResult(query);
+            unnaccpetedRequests = esql.session(authorisedUser).pendingRequests();
           }
           String connectionid = null;
           Integer i = 0;
@@ -980,9 +1662,9 @@ public class ProfNetwork {
           System.out.println("FRIEND REQUESTS");
           System.out.println("---------------");
           System.out.println("Requests From: ");
-          for (List<String> result : unnaccpetedRequests) {
+          for (String result : unnaccpetedRequests) {
             ++i;
-            connectionid = result.get(0);
+            connectionid = result;
             System.out.printf("%d. %s\n", i, connectionid);
           }
           System.out.println("...................");
@@ -1004,16 +1686,18 @@ public class ProfNetwork {
             System.out.println("3. Go back");
             switch (readChoice()){
               case 1:
-                connectionid = unnaccpetedRequests.get(choice-1).get(0);
+                connectionid = unnaccpetedRequests.get(choice-1);
                 System.out.printf("Accepting friend request...", connectionid);
                 esql.AcceptRequest(esql, authorisedUser, connectionid);
+                esql.session(authorisedUser).requestAnswered(connectionid);
                 redoQuery = true;
                 Sleep(2000);
                 break;
               case 2:
-                connectionid = unnaccpetedRequests.get(choice-1).get(0);
+                connectionid = unnaccpetedRequests.get(choice-1);
                 System.out.printf("Denying friend request...", connectionid);
                 esql.DenyRequest(esql, authorisedUser, connectionid);
+                esql.session(authorisedUser).requestAnswered(connectionid);
                 redoQuery = true;
                 Sleep(2000);
                 break;
@@ -0,0 +1,189 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Collection;
+
+/**
+ * This interface defines every user, connection, message and profile
+ * operation the ProfNetwork menus need.  JdbcStore implements it on top of
+ * the PostgreSQL schema and MemoryStore implements it in-process.
+ *
+ */
+public interface ProfStore {
+
+   // Connection status:
+   // 0 : Unaccepted
+   // 1 : Accepted
+   // 2 : Denied
+
+   /**
+    * Creates a new user with the given login, password and email.
+    *
+    * @throws java.sql.SQLException when the login is already taken
+    */
+   public void createUser (String login, String password, String email) throws SQLException;
+
+   /**
+    * @return true when a user with this login and password exists
+    */
+   public boolean checkCredentials (String login, String password) throws SQLException;
+
+   /**
+    * @return true when a user with this login exists
+    */
+   public boolean userExists (String login) throws SQLException;
+
+   /**
+    * @return true when a connection or request exists in either direction
+    */
+   public boolean connectionExists (String user, String other) throws SQLException;
+
+   /**
+    * @return the number of accepted connections of a user
+    */
+   public int numConnections (String user) throws SQLException;
+
+   /**
+    * @return the logins of every accepted connection of a user
+    */
+   public List<String> getConnections (String user) throws SQLException;
+
+   /**
+    * Looks up the accepted connections of many users at once.
+    *
+    * @return the logins of every accepted connection keyed by user, users
+    *         without connections map to an empty list
+    */
+   public Map<String, List<String>> getConnections (Collection<String> users) throws SQLException;
+
+   /**
+    * @return the accepted connections two users have in common, sorted
+    */
+   public List<String> mutualConnections (String user, String other) throws SQLException;
+
+   /**
+    * Counts the mutual connections between one user and each of a list of
+    * users in a single pass, e.g. for a whole page of search results.
+    *
+    * @return the number of mutual connections keyed by the other user
+    */
+   public Map<String, Integer> mutualConnectionCounts (String user, List<String> others) throws SQLException;
+
+   /**
+    * Sends a connection request from one user to another.
+    *
+    * @throws java.sql.SQLException when the request already exists
+    */
+   public void sendRequest (String user, String other) throws SQLException;
+
+   /**
+    * @return the logins of every user with an unaccepted request to a user
+    */
+   public List<String> pendingRequests (String user) throws SQLException;
+
+   public void acceptRequest (String user, String friend) throws SQLException;
+
+   public void denyRequest (String user, String friend) throws SQLException;
+
+   public void sendMessage (String sender, String receiver, String contents) throws SQLException;
+
+   /**
+    * Returns every message received by a user.  Each record holds
+    * msgid, senderid, contents and deletestatus in that order.
+    */
+   public List<List<String>> inbox (String user) throws SQLException;
+
+   /**
+    * Returns the messages received by a user with a msgid greater than
+    * afterMsgId, in msgid order and in the same shape as inbox.
+    */
+   public List<List<String>> inboxSince (String user, int afterMsgId) throws SQLException;
+
+   /**
+    * Full text search over the messages a user sent or received and has not
+    * deleted.  Results are ordered by relevance, then newest first.  Each
+    * record holds msgid, senderid, receiverid, sendtime and contents.
+    *
+    * @param terms words that must all appear in a message
+    * @param limit the page size
+    * @param offset the number of results to skip
+    */
+   public List<List<String>> searchMessages (String user, String terms, int limit, int offset) throws SQLException;
+
+   /**
+    * Returns one page of the messages exchanged by two users, newest first,
+    * leaving out the ones the user deleted on their side.  Each record holds
+    * msgid, senderid, receiverid, sendtime and contents.
+    *
+    * @param beforeTime the sendtime of the oldest message already shown,
+    *        null for the newest page
+    * @param beforeMsgId the msgid of the oldest message already shown
+    */
+   public List<List<String>> conversation (String user, String other, String beforeTime, int beforeMsgId, int limit) throws SQLException;
+
+   /**
+    * Deletes a message on the receiver's side, nothing happens when the user
+    * did not receive it.
+    */
+   // deletestatus == 1 -> reciever has deleted message
+   public void deleteMessage (String user, String msgId) throws SQLException;
+
+   /**
+    * Deletes a message on the sender's side, nothing happens when the user
+    * did not send it to receiver.  A message deleted on both sides can be
+    * archived, see MessageArchiver.
+    */
+   // status == 1 -> sender has deleted message
+   public void deleteSentMessage (String user, String receiver, String msgId) throws SQLException;
+
+   /**
+    * @return the current version of a user's profile, to start a ProfileEdit
+    */
+   public int profileVersion (String user) throws SQLException;
+
+   /**
+    * Applies every change staged in a ProfileEdit atomically and bumps the
+    * profile version.
+    *
+    * @throws java.sql.SQLException with SQLState 40001 when the profile
+    *         changed since the edit started, nothing is applied then
+    */
+   public void commitProfile (ProfileEdit edit) throws SQLException;
+
+   /**
+    * Each record holds instituitionname, major, degree, startdate and enddate.
+    */
+   public List<List<String>> educationHistory (String user) throws SQLException;
+
+   /**
+    * Each record holds company, role, location, startdate and enddate.
+    */
+   public List<List<String>> workHistory (String user) throws SQLException;
+
+   /**
+    * Starts calling the listener whenever a message or connection request
+    * arrives for the user, from whichever session or process sent it.
+    */
+   public void watch (String user, StoreListener listener) throws SQLException;
+
+   public void unwatch (String user, StoreListener listener);
+
+   /**
+    * Releases whatever resources the store holds.
+    */
+   public void close ();
+
+}//end ProfStore
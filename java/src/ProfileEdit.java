@@ -0,0 +1,123 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+/**
+ * Changes to a user's profile staged in memory and handed to
+ * ProfStore.commitProfile in one go.  The profile version read when the
+ * edit started is committed with it so that a concurrent edit of the same
+ * profile makes the commit fail instead of being overwritten.
+ *
+ */
+public class ProfileEdit {
+
+   private final String _user;
+   private final int _version;
+
+   // USR column name to new value, in the order they were set.
+   private final Map<String, String> _fields = new LinkedHashMap<String, String>();
+
+   // WORK_EXPR rows: company, role, location, startDate, endDate.
+   private final List<List<String>> _work = new ArrayList<List<String>>();
+
+   // EDUCATIONAL_DETAILS rows: instituitionName, major, degree, startdate, enddate.
+   private final List<List<String>> _education = new ArrayList<List<String>>();
+
+   /**
+    * Creates a new instance of ProfileEdit
+    *
+    * @param user the login whose profile is edited
+    * @param version the version returned by ProfStore.profileVersion
+    */
+   public ProfileEdit (String user, int version) {
+      this._user = user;
+      this._version = version;
+   }//end ProfileEdit
+
+   public String user () {
+      return this._user;
+   }
+
+   public int version () {
+      return this._version;
+   }
+
+   public void setPassword (String password) {
+      this._fields.put("password", password);
+   }
+
+   public void setEmail (String email) {
+      this._fields.put("email", email);
+   }
+
+   public void setName (String name) {
+      this._fields.put("name", name);
+   }
+
+   /**
+    * @param date the birthday formatted as yyyy-mm-dd
+    */
+   public void setBirthday (String date) {
+      this._fields.put("dateOfBirth", date);
+   }
+
+   /**
+    * Adds a job, or replaces the one with the same company, role and start date.
+    *
+    * @param endDate null while the job is current
+    */
+   public void addWork (String company, String role, String location, String startDate, String endDate) {
+      this._work.add(row(company, role, location, startDate, endDate));
+   }
+
+   /**
+    * Adds a degree, or replaces the one with the same major and degree.
+    */
+   public void addEducation (String institution, String major, String degree, String startDate, String endDate) {
+      this._education.add(row(institution, major, degree, startDate, endDate));
+   }
+
+   /**
+    * @return the staged USR columns and their new values
+    */
+   public Map<String, String> fields () {
+      return this._fields;
+   }
+
+   public List<List<String>> work () {
+      return this._work;
+   }
+
+   public List<List<String>> education () {
+      return this._education;
+   }
+
+   /**
+    * @return the number of staged changes
+    */
+   public int size () {
+      return this._fields.size() + this._work.size() + this._education.size();
+   }
+
+   private static List<String> row (String... values) {
+      List<String> row = new ArrayList<String>();
+      for (String value : values)
+         row.add(value);
+      return row;
+   }
+
+}//end ProfileEdit
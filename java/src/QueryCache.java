@@ -0,0 +1,215 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Size bounded LRU cache of query results.  Entries are keyed by the
+ * normalized SQL text and tagged with the tables the query reads; an
+ * update of any of those tables evicts them.  Entries also expire after a
+ * fixed time so writes made by other processes show up eventually.
+ *
+ */
+public class QueryCache {
+
+   // table names following FROM, JOIN, UPDATE or INTO.
+   private static final Pattern TABLE = Pattern.compile("\\b(?:from|join|update|into)\\s+([a-z_][a-z0-9_]*)");
+
+   private final int _maxEntries;
+   private final long _ttl;
+
+   private final LinkedHashMap<String, Result> _entries;
+
+   // keys of the entries that read a table.
+   private final Map<String, Set<String>> _byTable = new HashMap<String, Set<String>>();
+
+   // tables maintained by triggers on another table.
+   private final Map<String, Set<String>> _derived = new HashMap<String, Set<String>>();
+
+   private static class Result {
+      List<List<String>> rows;
+      Set<String> tables;
+      long expires;
+   }
+
+   /**
+    * Creates a new instance of QueryCache
+    *
+    * @param maxEntries the most results kept, least recently used go first
+    * @param ttl how long a result may be served, in milliseconds
+    */
+   public QueryCache (int maxEntries, long ttl) {
+      this._maxEntries = maxEntries;
+      this._ttl = ttl;
+      this._entries = new LinkedHashMap<String, Result>(16, 0.75f, true){
+         protected boolean removeEldestEntry (Map.Entry<String, Result> eldest) {
+            if (size() <= QueryCache.this._maxEntries)
+               return false;
+            untag(eldest.getKey(), eldest.getValue());
+            Metrics.increment("cache.evictions");
+            return true;
+         }
+      };
+   }//end QueryCache
+
+   /**
+    * Declares that writes to a table also change another one, e.g. through
+    * a trigger, so they evict the results that read it.
+    */
+   public synchronized void derive (String table, String derivedTable) {
+      Set<String> derived = this._derived.get(table);
+      if (derived == null){
+         derived = new HashSet<String>();
+         this._derived.put(table, derived);
+      }
+      derived.add(derivedTable);
+   }
+
+   /**
+    * Collapses whitespace and case outside of string literals so trivially
+    * different spellings of a query share an entry.
+    */
+   public static String normalize (String sql) {
+      StringBuilder key = new StringBuilder(sql.length());
+      boolean quoted = false, space = false;
+      for (int i = 0; i < sql.length(); ++i){
+         char c = sql.charAt(i);
+         if (c == '\'')
+            quoted = !quoted;
+         if (!quoted && Character.isWhitespace(c)){
+            space = key.length() > 0;
+            continue;
+         }
+         if (space){
+            key.append(' ');
+            space = false;
+         }
+         key.append(quoted ? c : Character.toLowerCase(c));
+      }
+      int end = key.length();
+      while (end > 0 && (key.charAt(end - 1) == ';' || key.charAt(end - 1) == ' '))
+         --end;
+      key.setLength(end);
+      return key.toString();
+   }
+
+   /**
+    * @return the tables a normalized statement reads or writes
+    */
+   public static Set<String> tables (String normalized) {
+      Set<String> tables = new HashSet<String>();
+      // string literals could contain anything, leave them out
+      Matcher m = TABLE.matcher(normalized.replaceAll("'[^']*'", "''"));
+      while (m.find())
+         tables.add(m.group(1));
+      return tables;
+   }
+
+   /**
+    * @return a copy of the cached result, or null on a miss
+    */
+   public synchronized List<List<String>> get (String key) {
+      Result entry = this._entries.get(key);
+      if (entry != null && entry.expires < System.currentTimeMillis()){
+         untag(key, this._entries.remove(key));
+         entry = null;
+      }
+      if (entry == null){
+         Metrics.increment("cache.misses");
+         return null;
+      }
+      Metrics.increment("cache.hits");
+      return copy(entry.rows);
+   }
+
+   public synchronized void put (String key, List<List<String>> rows) {
+      Result entry = new Result();
+      entry.rows = copy(rows);
+      entry.tables = tables(key);
+      entry.expires = System.currentTimeMillis() + this._ttl;
+      Result old = this._entries.put(key, entry);
+      if (old != null)
+         untag(key, old);
+      for (String table : entry.tables){
+         Set<String> keys = this._byTable.get(table);
+         if (keys == null){
+            keys = new HashSet<String>();
+            this._byTable.put(table, keys);
+         }
+         keys.add(key);
+      }
+      Metrics.set("cache.size", this._entries.size());
+   }
+
+   /**
+    * Evicts every result that read a table written by the statement.
+    */
+   public void invalidate (String sql) {
+      for (String table : tables(normalize(sql)))
+         invalidateTable(table);
+   }
+
+   public synchronized void invalidateTable (String table) {
+      table = table.toLowerCase();
+      Set<String> keys = this._byTable.remove(table);
+      if (keys != null){
+         for (String key : keys){
+            Result entry = this._entries.remove(key);
+            if (entry != null){
+               untag(key, entry);
+               Metrics.increment("cache.invalidations");
+            }
+         }
+      }
+      Set<String> derived = this._derived.get(table);
+      if (derived != null)
+         for (String other : derived)
+            invalidateTable(other);
+      Metrics.set("cache.size", this._entries.size());
+   }
+
+   public synchronized void clear () {
+      this._entries.clear();
+      this._byTable.clear();
+      Metrics.set("cache.size", 0);
+   }
+
+   private void untag (String key, Result entry) {
+      if (entry == null)
+         return;
+      for (String table : entry.tables){
+         Set<String> keys = this._byTable.get(table);
+         if (keys != null){
+            keys.remove(key);
+            if (keys.isEmpty())
+               this._byTable.remove(table);
+         }
+      }
+   }
+
+   private static List<List<String>> copy (List<List<String>> rows) {
+      List<List<String>> copy = new ArrayList<List<String>>(rows.size());
+      for (List<String> row : rows)
+         copy.add(new ArrayList<String>(row));
+      return copy;
+   }
+
+}//end QueryCache
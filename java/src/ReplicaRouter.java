@@ -0,0 +1,249 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Decides whether a read can go to a streaming replica instead of the
+ * primary.  The router remembers the WAL position of the newest write this
+ * process made or was told about, and only sends a read to the replica
+ * once the replica has replayed up to it and its replay lag is within the
+ * bound.  Otherwise, and whenever the replica fails, reads go to the
+ * primary, and the replica is tried again after RETRY_INTERVAL.
+ *
+ * Writes are only noted as they happen; the primary's WAL position is
+ * read once a read could go to the replica, so a run of writes costs a
+ * single extra round trip and writes followed by no read cost none.
+ *
+ * The WAL functions used need PostgreSQL 10 or later, and the bundled
+ * pg73jdbc3 driver speaks protocol 2, which PostgreSQL 14 removed, so
+ * servers 10 to 13 are supported.
+ *
+ */
+public class ReplicaRouter {
+
+   // how long a replay position read from the replica is trusted.
+   private static final long CHECK_INTERVAL = 100;
+
+   // wait before reconnecting to a replica that failed.
+   private static final long RETRY_INTERVAL = 5000;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final long _maxLag;
+
+   private Connection _replica = null;
+   private long _downUntil = 0;
+
+   // WAL positions as 64-bit numbers, see lsn.
+   private long _writeLsn = 0;
+   private boolean _unsynced = false;
+   private long _replayLsn = -1;
+   private long _lag = 0;
+   private long _checkedAt = 0;
+
+   /**
+    * Creates a new instance of ReplicaRouter
+    *
+    * @param url the JDBC URL of the replica
+    * @param maxLag the largest replay lag reads accept, in milliseconds
+    */
+   public ReplicaRouter (String url, String user, String passwd, long maxLag) {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxLag = maxLag;
+   }//end ReplicaRouter
+
+   /**
+    * Parses a pg_lsn such as 16/B374D848 into a comparable number.
+    */
+   public static long lsn (String text) {
+      int slash = text.indexOf('/');
+      return (Long.parseLong(text.substring(0, slash), 16) << 32) | Long.parseLong(text.substring(slash + 1), 16);
+   }
+
+   /**
+    * Records the primary's WAL position after a write, reads must see it.
+    */
+   public synchronized void wrote (long lsn) {
+      this._writeLsn = Math.max(this._writeLsn, lsn);
+   }
+
+   /**
+    * Notes that the primary was written, its WAL position is read by the
+    * next route.
+    */
+   public synchronized void wrote () {
+      this._unsynced = true;
+   }
+
+   /**
+    * Reads the primary's current WAL position and records it as a write.
+    */
+   public void wrote (Connection primary) throws SQLException {
+      Statement stmt = primary.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery("SELECT pg_current_wal_lsn()");
+         rs.next();
+         wrote(lsn(rs.getString(1)));
+      }finally{
+         stmt.close();
+      }
+   }
+
+   /**
+    * @param primary the connection to the primary, to read its WAL position
+    *        after writes
+    * @return the replica connection when it can serve a read now, null to
+    *         read from the primary
+    */
+   public synchronized Connection route (Connection primary) {
+      long now = System.currentTimeMillis();
+      if (this._replica == null){
+         if (now < this._downUntil)
+            return primary("replica.down");
+         try{
+            this._replica = DriverManager.getConnection(this._url, this._user, this._passwd);
+            this._checkedAt = 0;
+         }catch (SQLException e){
+            failed(e);
+            return primary("replica.down");
+         }
+      }
+      if (this._unsynced){
+         try{
+            wrote(primary);
+            this._unsynced = false;
+         }catch (SQLException e){
+            // the read goes to the primary and reports its trouble
+            return primary("replica.behind");
+         }
+      }
+      // a stale view of the replica is only refreshed when it would turn
+      // the read away, or once it is too old to judge the lag by
+      if (now - this._checkedAt > CHECK_INTERVAL || this._replayLsn < this._writeLsn){
+         try{
+            check(now);
+         }catch (SQLException e){
+            failed(e);
+            return primary("replica.down");
+         }
+      }
+      if (this._lag > this._maxLag)
+         return primary("replica.lagging");
+      if (this._replayLsn < this._writeLsn)
+         return primary("replica.behind");
+      Metrics.increment("replica.reads");
+      return this._replica;
+   }
+
+   /**
+    * Judges an error of a read sent to the replica.  Lost connections and
+    * reads cancelled by a conflict with recovery drop the replica for
+    * RETRY_INTERVAL, errors of the query itself leave it in use.
+    *
+    * @return true when the read should be retried on the primary
+    */
+   public synchronized boolean failedWith (SQLException e) {
+      String state = e.getSQLState();
+      boolean down;
+      if (state != null){
+         down = state.startsWith("08") || state.equals("40001");
+      }
+      else{
+         // the protocol 2 driver sets no SQLState, recovery conflicts are
+         // known by their message and lost connections by a failed probe
+         String message = String.valueOf(e.getMessage());
+         down = message.contains("conflict with recovery") || !alive();
+      }
+      if (down)
+         failed(e);
+      return down;
+   }
+
+   /**
+    * Drops the replica after it failed, reads go to the primary until
+    * RETRY_INTERVAL has passed.
+    */
+   public synchronized void failed (SQLException e) {
+      System.err.println("Reading from the primary, replica failed: " + e.getMessage());
+      Metrics.increment("replica.failures");
+      close();
+      this._downUntil = System.currentTimeMillis() + RETRY_INTERVAL;
+   }
+
+   public synchronized void close () {
+      try{
+         if (this._replica != null)
+            this._replica.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+      this._replica = null;
+   }
+
+   private boolean alive () {
+      if (this._replica == null)
+         return false;
+      try{
+         Statement stmt = this._replica.createStatement();
+         try{
+            stmt.executeQuery("SELECT 1").close();
+         }finally{
+            stmt.close();
+         }
+         return true;
+      }catch (SQLException e){
+         return false;
+      }
+   }
+
+   private Connection primary (String reason) {
+      Metrics.increment(reason);
+      Metrics.increment("primary.reads");
+      return null;
+   }
+
+   /*
+    * Reads how far the replica replayed and how old the last replayed
+    * transaction is.  A replica that replayed all it received is not
+    * lagging, however long ago the primary last wrote.
+    **/
+   private void check (long now) throws SQLException {
+      Statement stmt = this._replica.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery(
+            "SELECT pg_last_wal_replay_lsn(), " +
+            "CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE coalesce(extract(epoch FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END");
+         rs.next();
+         String replayed = rs.getString(1);
+         if (replayed == null)
+            throw new SQLException("not a streaming replica");
+         this._replayLsn = lsn(replayed);
+         this._lag = (long) rs.getDouble(2);
+         this._checkedAt = now;
+      }finally{
+         stmt.close();
+      }
+      Metrics.set("replica.lag", this._lag);
+      Metrics.set("replica.behind.bytes", Math.max(0, this._writeLsn - this._replayLsn));
+   }
+
+}//end ReplicaRouter
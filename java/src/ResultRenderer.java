@@ -0,0 +1,211 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Formats screens of text and tables into one reusable buffer and writes
+ * each screen to the console in a single call.  Tables are laid out in
+ * columns padded to the widest value, and results longer than a page stop
+ * at a "more" prompt.
+ *
+ */
+public class ResultRenderer {
+
+   // widest a column other than the last may get before it is cut.
+   private static final int MAX_WIDTH = 40;
+
+   private static final String ANSI_CLS = "\u001b[2J";
+   private static final String ANSI_HOME = "\u001b[H";
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final OutputStream _out;
+   private final BufferedReader _in;
+   private final int _pageRows;
+
+   // the screen being built, reused for every screen.
+   private final StringBuilder _screen = new StringBuilder(8192);
+
+   /**
+    * Creates a new instance of ResultRenderer writing to standard out
+    *
+    * @param in where answers to the "more" prompt are read from
+    * @param pageRows table rows shown before prompting, 0 to never prompt
+    */
+   public ResultRenderer (BufferedReader in, int pageRows) {
+      this(new FileOutputStream(FileDescriptor.out), in, pageRows);
+   }//end ResultRenderer
+
+   public ResultRenderer (OutputStream out, BufferedReader in, int pageRows) {
+      this._out = out;
+      this._in = in;
+      this._pageRows = pageRows;
+   }//end ResultRenderer
+
+   /**
+    * Starts the screen with a clear, so it is sent with the first write.
+    */
+   public ResultRenderer clear () {
+      this._screen.append(ANSI_CLS).append(ANSI_HOME);
+      return this;
+   }
+
+   public ResultRenderer line (String text) {
+      this._screen.append(text).append('\n');
+      return this;
+   }
+
+   /**
+    * Lays out rows in columns sized to the widest value of all rows,
+    * paging when there are more than a page of them.
+    *
+    * @return the number of rows shown, fewer when paging was stopped
+    */
+   public int table (List<String> header, List<List<String>> rows) throws IOException {
+      long start = System.nanoTime();
+      int[] widths = widths(header, rows);
+      int shown = 0;
+      while (true){
+         int end = this._pageRows > 0 ? Math.min(rows.size(), shown + this._pageRows) : rows.size();
+         appendRow(header, widths);
+         for (int i = shown; i < end; ++i)
+            appendRow(rows.get(i), widths);
+         shown = end;
+         if (shown >= rows.size())
+            break;
+         long waiting = System.nanoTime();
+         boolean more = more(shown, Integer.toString(rows.size()));
+         start += System.nanoTime() - waiting;
+         if (!more)
+            break;
+      }
+      Metrics.add("render.rows", shown);
+      Metrics.time("render.table", System.nanoTime() - start);
+      return shown;
+   }
+
+   /**
+    * Like table, for rows still to be read from a result set.  Only a page
+    * is held at a time, so columns are sized page by page.
+    *
+    * @return the number of rows shown
+    */
+   public int table (ResultSet rs) throws SQLException, IOException {
+      long start = System.nanoTime();
+      ResultSetMetaData rsmd = rs.getMetaData();
+      int numCol = rsmd.getColumnCount();
+      List<String> header = new ArrayList<String>(numCol);
+      for (int i = 1; i <= numCol; ++i)
+         header.add(rsmd.getColumnName(i));
+
+      int limit = this._pageRows > 0 ? this._pageRows : Integer.MAX_VALUE;
+      List<List<String>> page = new ArrayList<List<String>>();
+      int shown = 0;
+      boolean next = rs.next();
+      while (next){
+         page.clear();
+         while (next && page.size() < limit){
+            List<String> row = new ArrayList<String>(numCol);
+            for (int i = 1; i <= numCol; ++i)
+               row.add(rs.getString(i));
+            page.add(row);
+            next = rs.next();
+         }
+         int[] widths = widths(header, page);
+         appendRow(header, widths);
+         for (List<String> row : page)
+            appendRow(row, widths);
+         shown += page.size();
+         if (!next)
+            break;
+         long waiting = System.nanoTime();
+         boolean more = more(shown, "?");
+         start += System.nanoTime() - waiting;
+         if (!more)
+            break;
+      }
+      if (shown == 0)
+         appendRow(header, widths(header, page));
+      Metrics.add("render.rows", shown);
+      Metrics.time("render.table", System.nanoTime() - start);
+      return shown;
+   }
+
+   /**
+    * Writes out the screen built so far.
+    */
+   public void flush () throws IOException {
+      if (this._screen.length() == 0)
+         return;
+      // anything printed through System.out must come first
+      System.out.flush();
+      this._out.write(this._screen.toString().getBytes(UTF8));
+      this._out.flush();
+      this._screen.setLength(0);
+      Metrics.increment("render.screens");
+   }
+
+   /*
+    * Writes the screen and asks whether to show the next page.
+    **/
+   private boolean more (int shown, String total) throws IOException {
+      this._screen.append(String.format("-- more (%d of %s), enter to continue, q to stop --", shown, total));
+      flush();
+      String answer = this._in.readLine();
+      return answer != null && !answer.trim().equalsIgnoreCase("q");
+   }
+
+   private static int[] widths (List<String> header, List<List<String>> rows) {
+      int[] widths = new int[header.size()];
+      for (int c = 0; c < widths.length; ++c)
+         widths[c] = Math.min(MAX_WIDTH, header.get(c).length());
+      for (List<String> row : rows){
+         for (int c = 0; c < widths.length; ++c)
+            widths[c] = Math.max(widths[c], Math.min(MAX_WIDTH, text(row.get(c)).length()));
+      }
+      return widths;
+   }
+
+   private void appendRow (List<String> row, int[] widths) {
+      for (int c = 0; c < widths.length; ++c){
+         String value = text(row.get(c));
+         if (c == widths.length - 1){
+            // nothing to line up after the last column
+            this._screen.append(value);
+            break;
+         }
+         if (value.length() > widths[c])
+            value = value.substring(0, widths[c] - 3) + "...";
+         this._screen.append(value);
+         for (int pad = value.length(); pad < widths[c] + 2; ++pad)
+            this._screen.append(' ');
+      }
+      this._screen.append('\n');
+   }
+
+   private static String text (String value) {
+      return value == null ? "null" : value.trim();
+   }
+
+}//end ResultRenderer
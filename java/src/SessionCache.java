@@ -0,0 +1,126 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per login cache of the inbox and the pending connection requests.  The
+ * store pushes an event whenever a message or request arrives, so the
+ * cache only goes back to the store when something changed.  The inbox is
+ * then read again in full: msgids are taken when a message is inserted, not
+ * when it commits, so a message can show up after one with a higher msgid
+ * and no msgid watermark is safe to read from.
+ *
+ */
+public class SessionCache implements StoreListener {
+
+   private final ProfStore _store;
+   private final String _user;
+
+   // cached rows, null until first read.
+   private List<List<String>> _inbox = null;
+   private List<String> _requests = null;
+
+   // set by the store's listener thread.
+   private volatile boolean _inboxStale = true;
+   private volatile boolean _requestsStale = true;
+   private final AtomicInteger _newMessages = new AtomicInteger();
+   private final AtomicInteger _newRequests = new AtomicInteger();
+
+   /**
+    * Creates a new instance of SessionCache and starts watching the user
+    */
+   public SessionCache (ProfStore store, String user) throws SQLException {
+      this._store = store;
+      this._user = user;
+      store.watch(user, this);
+   }//end SessionCache
+
+   /**
+    * Stops watching the user.
+    */
+   public void close () {
+      this._store.unwatch(this._user, this);
+   }
+
+   public void messageReceived (String user) {
+      this._inboxStale = true;
+      this._newMessages.incrementAndGet();
+   }
+
+   public void requestReceived (String user) {
+      this._requestsStale = true;
+      this._newRequests.incrementAndGet();
+   }
+
+   /**
+    * @return the number of messages received since the inbox was last shown
+    */
+   public int newMessages () {
+      return this._newMessages.get();
+   }
+
+   /**
+    * @return the number of requests received since they were last shown
+    */
+   public int newRequests () {
+      return this._newRequests.get();
+   }
+
+   /**
+    * Returns the inbox in the same shape as ProfStore.inbox, reading it
+    * again only when a message arrived since the last call.
+    */
+   public synchronized List<List<String>> inbox () throws SQLException {
+      if (this._inboxStale){
+         this._inboxStale = false;
+         this._newMessages.set(0);
+         this._inbox = this._store.inbox(this._user);
+      }
+      return this._inbox;
+   }
+
+   /**
+    * Marks a message deleted in the cached inbox after the store deleted it.
+    */
+   public synchronized void messageDeleted (String msgId) {
+      if (this._inbox == null)
+         return;
+      for (List<String> row : this._inbox)
+         if (row.get(0).equals(msgId))
+            row.set(3, "1");
+   }
+
+   /**
+    * @return the logins with an unaccepted request to the user
+    */
+   public synchronized List<String> pendingRequests () throws SQLException {
+      if (this._requestsStale){
+         this._requestsStale = false;
+         this._newRequests.set(0);
+         this._requests = this._store.pendingRequests(this._user);
+      }
+      return this._requests;
+   }
+
+   /**
+    * Drops a request from the cache after it was accepted or denied.
+    */
+   public synchronized void requestAnswered (String friend) {
+      if (this._requests != null)
+         this._requests.remove(friend);
+   }
+
+}//end SessionCache
@@ -0,0 +1,609 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ProfStore implementation that spreads users over several PostgreSQL
+ * databases, each created with sql/src/shard_tables.sql and reached
+ * through its own ProfNetwork and JdbcStore.
+ *
+ * A user lives on the shard picked by a jump consistent hash of the
+ * login, together with their profile, work and education history,
+ * FRIENDS rows and the messages they received.  CONNECTION_USR rows are
+ * written to the shards of both users so either side reads its requests
+ * and connections locally.  Reads that involve many users, such as
+ * batched neighbor lookups or message search, ask every shard involved
+ * at once and merge the answers.
+ *
+ */
+public class ShardedStore implements ProfStore {
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final ProfNetwork[] _nodes;
+   private final JdbcStore[] _shards;
+   private final ExecutorService _pool;
+
+   /*
+    * A write applied to one shard.
+    **/
+   private interface Write {
+      void run (JdbcStore shard) throws SQLException;
+   }
+
+   /**
+    * Creates a new instance of ShardedStore
+    *
+    * @param nodes one connected ProfNetwork per shard, in shard order
+    */
+   public ShardedStore (List<ProfNetwork> nodes) {
+      this._nodes = nodes.toArray(new ProfNetwork[nodes.size()]);
+      this._shards = new JdbcStore[this._nodes.length];
+      for (int i = 0; i < this._nodes.length; ++i)
+         this._shards[i] = (JdbcStore) this._nodes[i].store();
+      this._pool = Executors.newFixedThreadPool(this._nodes.length, new ThreadFactory(){
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "ProfNetwork shard");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+   }//end ShardedStore
+
+   /**
+    * Connects to one database of the same name on each local port.
+    */
+   public static ShardedStore connect (String dbname, String[] ports, String user, String passwd) throws SQLException {
+      List<ProfNetwork> nodes = new ArrayList<ProfNetwork>();
+      for (String port : ports)
+         nodes.add(new ProfNetwork(dbname, port.trim(), user, passwd));
+      return new ShardedStore(nodes);
+   }
+
+   /**
+    * Jump consistent hash (Lamping and Veach) of a 64-bit FNV-1a hash of
+    * the login.  Going from n to n + 1 shards only moves the users that
+    * land on the new shard.
+    *
+    * @return the shard of a user, 0 to shards - 1
+    */
+   public static int shardOf (String user, int shards) {
+      long key = 0xcbf29ce484222325L;
+      for (byte b : user.trim().getBytes(UTF8)){
+         key ^= b & 0xff;
+         key *= 0x100000001b3L;
+      }
+      long b = -1, j = 0;
+      while (j < shards){
+         b = j;
+         key = key * 2862933555777941757L + 1;
+         j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+      }
+      return (int) b;
+   }
+
+   /**
+    * @return the database of every shard, in shard order
+    */
+   public List<ProfNetwork> nodes () {
+      return Collections.unmodifiableList(Arrays.asList(this._nodes));
+   }
+
+   private JdbcStore shard (String user) {
+      return this._shards[shardOf(user, this._shards.length)];
+   }
+
+   public void createUser (String login, String password, String email) throws SQLException {
+      shard(login).createUser(login, password, email);
+   }
+
+   public boolean checkCredentials (String login, String password) throws SQLException {
+      return shard(login).checkCredentials(login, password);
+   }
+
+   public boolean userExists (String login) throws SQLException {
+      return shard(login).userExists(login);
+   }
+
+   public boolean connectionExists (String user, String other) throws SQLException {
+      // both directions are copied to both users' shards.  A pair found on
+      // only one of them was half written and counts as missing, so the
+      // request can be sent again to repair it, see sendRequest
+      if (!shard(user).connectionExists(user, other))
+         return false;
+      return shard(user) == shard(other) || shard(other).connectionExists(user, other);
+   }
+
+   public int numConnections (String user) throws SQLException {
+      return shard(user).numConnections(user);
+   }
+
+   public List<String> getConnections (String user) throws SQLException {
+      return shard(user).getConnections(user);
+   }
+
+   public Map<String, List<String>> getConnections (Collection<String> users) throws SQLException {
+      final Map<Integer, List<String>> byShard = new HashMap<Integer, List<String>>();
+      for (String user : users){
+         int i = shardOf(user, this._shards.length);
+         List<String> group = byShard.get(i);
+         if (group == null){
+            group = new ArrayList<String>();
+            byShard.put(i, group);
+         }
+         group.add(user);
+      }
+      List<Callable<Map<String, List<String>>>> tasks = new ArrayList<Callable<Map<String, List<String>>>>();
+      for (final Map.Entry<Integer, List<String>> group : byShard.entrySet()){
+         tasks.add(new Callable<Map<String, List<String>>>(){
+            public Map<String, List<String>> call () throws SQLException {
+               return ShardedStore.this._shards[group.getKey()].getConnections(group.getValue());
+            }
+         });
+      }
+      Map<String, List<String>> connections = new HashMap<String, List<String>>();
+      for (Map<String, List<String>> part : scatter(tasks))
+         connections.putAll(part);
+      return connections;
+   }
+
+   public List<String> mutualConnections (String user, String other) throws SQLException {
+      Map<String, List<String>> connections = getConnections(Arrays.asList(user, other));
+      TreeSet<String> mutual = new TreeSet<String>(connections.get(user));
+      mutual.retainAll(connections.get(other));
+      return new ArrayList<String>(mutual);
+   }
+
+   public Map<String, Integer> mutualConnectionCounts (String user, List<String> others) throws SQLException {
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      if (others.isEmpty())
+         return counts;
+      Set<String> users = new HashSet<String>(others);
+      users.add(user);
+      Map<String, List<String>> connections = getConnections(users);
+      // intern the logins so the lists merge like MemoryStore's, see SortedIds
+      Map<String, Integer> ids = new HashMap<String, Integer>();
+      int[] mine = sortedIds(connections.get(user), ids);
+      for (String other : others)
+         counts.put(other, SortedIds.intersectCount(mine, sortedIds(connections.get(other), ids)));
+      return counts;
+   }
+
+   public void sendRequest (final String user, final String other) throws SQLException {
+      // a copy already there is skipped, so resending a request that was
+      // half written fills in the missing copy instead of failing on the
+      // shard that committed
+      final boolean[] inserted = new boolean[1];
+      both(user, other, new Write(){
+         public void run (JdbcStore shard) throws SQLException {
+            if (shard.sendRequestIfMissing(user, other))
+               inserted[0] = true;
+         }
+      });
+      if (!inserted[0])
+         throw new SQLException("ERROR: duplicate key violates unique constraint \"connection_usr_pkey\"");
+   }
+
+   public List<String> pendingRequests (String user) throws SQLException {
+      return shard(user).pendingRequests(user);
+   }
+
+   public void acceptRequest (final String user, final String friend) throws SQLException {
+      both(user, friend, new Write(){
+         public void run (JdbcStore shard) throws SQLException {
+            shard.acceptRequest(user, friend);
+         }
+      });
+   }
+
+   public void denyRequest (final String user, final String friend) throws SQLException {
+      both(user, friend, new Write(){
+         public void run (JdbcStore shard) throws SQLException {
+            shard.denyRequest(user, friend);
+         }
+      });
+   }
+
+   public void sendMessage (String sender, String receiver, String contents) throws SQLException {
+      shard(receiver).sendMessage(sender, receiver, contents);
+   }
+
+   public List<List<String>> inbox (String user) throws SQLException {
+      return shard(user).inbox(user);
+   }
+
+   public List<List<String>> inboxSince (String user, int afterMsgId) throws SQLException {
+      return shard(user).inboxSince(user, afterMsgId);
+   }
+
+   public List<List<String>> searchMessages (final String user, final String terms, int limit, int offset) throws SQLException {
+      // sent messages sit on the receivers' shards, so every shard is asked
+      // for its best limit + offset and the page is cut from the merge
+      final int top = limit + offset;
+      List<Callable<List<List<String>>>> tasks = new ArrayList<Callable<List<List<String>>>>();
+      for (final JdbcStore shard : this._shards){
+         tasks.add(new Callable<List<List<String>>>(){
+            public List<List<String>> call () throws SQLException {
+               return shard.rankedSearch(user, terms, top, 0);
+            }
+         });
+      }
+      List<List<String>> results = new ArrayList<List<String>>();
+      for (List<List<String>> part : scatter(tasks))
+         results.addAll(part);
+      Collections.sort(results, new Comparator<List<String>>(){
+         public int compare (List<String> a, List<String> b) {
+            int c = Double.compare(Double.parseDouble(b.get(5)), Double.parseDouble(a.get(5)));
+            return c != 0 ? c : Integer.compare(Integer.parseInt(b.get(0).trim()), Integer.parseInt(a.get(0).trim()));
+         }
+      });
+      List<List<String>> page = new ArrayList<List<String>>();
+      for (List<String> result : results.subList(Math.min(offset, results.size()), Math.min(top, results.size()))){
+         result.remove(5);
+         page.add(result);
+      }
+      return page;
+   }
+
+   public List<List<String>> conversation (final String user, final String other, final String beforeTime, final int beforeMsgId, final int limit) throws SQLException {
+      final JdbcStore mine = shard(user), theirs = shard(other);
+      if (mine == theirs)
+         return mine.conversation(user, other, beforeTime, beforeMsgId, limit);
+      // each shard holds the messages its user received, merge the two pages
+      List<Callable<List<List<String>>>> tasks = new ArrayList<Callable<List<List<String>>>>();
+      for (final JdbcStore shard : new JdbcStore[] { mine, theirs }){
+         tasks.add(new Callable<List<List<String>>>(){
+            public List<List<String>> call () throws SQLException {
+               return shard.conversation(user, other, beforeTime, beforeMsgId, limit);
+            }
+         });
+      }
+      List<List<String>> messages = new ArrayList<List<String>>();
+      for (List<List<String>> part : scatter(tasks))
+         messages.addAll(part);
+      Collections.sort(messages, new Comparator<List<String>>(){
+         public int compare (List<String> a, List<String> b) {
+            int c = Timestamp.valueOf(b.get(3)).compareTo(Timestamp.valueOf(a.get(3)));
+            return c != 0 ? c : Integer.compare(Integer.parseInt(b.get(0).trim()), Integer.parseInt(a.get(0).trim()));
+         }
+      });
+      return new ArrayList<List<String>>(messages.subList(0, Math.min(limit, messages.size())));
+   }
+
+   public void deleteMessage (String user, String msgId) throws SQLException {
+      shard(user).deleteMessage(user, msgId);
+   }
+
+   public void deleteSentMessage (String user, String receiver, String msgId) throws SQLException {
+      // messages live with their receiver
+      shard(receiver).deleteSentMessage(user, receiver, msgId);
+   }
+
+   public int profileVersion (String user) throws SQLException {
+      return shard(user).profileVersion(user);
+   }
+
+   public void commitProfile (ProfileEdit edit) throws SQLException {
+      shard(edit.user()).commitProfile(edit);
+   }
+
+   public List<List<String>> educationHistory (String user) throws SQLException {
+      return shard(user).educationHistory(user);
+   }
+
+   public List<List<String>> workHistory (String user) throws SQLException {
+      return shard(user).workHistory(user);
+   }
+
+   public void watch (String user, StoreListener listener) throws SQLException {
+      // messages and requests for a user are both written on their shard
+      shard(user).watch(user, listener);
+   }
+
+   public void unwatch (String user, StoreListener listener) {
+      shard(user).unwatch(user, listener);
+   }
+
+   public void close () {
+      this._pool.shutdownNow();
+      for (ProfNetwork node : this._nodes)
+         node.cleanup();
+   }
+
+   /*
+    * Applies a write to the shards of two users in one transaction each.
+    * Shards are always entered in index order so two writers cannot wait
+    * on each other.  The second commit can still fail after the first one
+    * succeeded.  The writes skip what is already there, so a resent
+    * request fills in the missing half, and answers only change pending
+    * requests; repairConnections copies back whatever is left.
+    **/
+   private void both (String a, String b, Write write) throws SQLException {
+      int i = shardOf(a, this._shards.length), j = shardOf(b, this._shards.length);
+      if (i == j){
+         write.run(this._shards[i]);
+         return;
+      }
+      ProfNetwork first = this._nodes[Math.min(i, j)], second = this._nodes[Math.max(i, j)];
+      boolean firstCommitted = false;
+      first.beginTransaction();
+      second.beginTransaction();
+      try{
+         write.run(this._shards[Math.min(i, j)]);
+         write.run(this._shards[Math.max(i, j)]);
+         first.commit();
+         firstCommitted = true;
+         second.commit();
+      }catch (SQLException e){
+         // only what has not committed can be rolled back
+         if (!firstCommitted)
+            rollbackQuietly(first);
+         else{
+            System.err.printf("Connection of %s and %s only written on shard %d, resend the request or run rebalance to repair it\n",
+                              a.trim(), b.trim(), Math.min(i, j));
+            Metrics.increment("shard.halfwritten");
+         }
+         rollbackQuietly(second);
+         throw e;
+      }
+   }
+
+   /*
+    * Rolls back without hiding the error that caused it.
+    **/
+   private static void rollbackQuietly (ProfNetwork node) {
+      try{
+         node.rollback();
+      }catch (SQLException e){
+         // the connection may be gone, the first error is the one reported
+      }
+   }
+
+   /*
+    * Runs one task per shard in parallel.
+    * @return the results in task order
+    **/
+   private <T> List<T> scatter (List<Callable<T>> tasks) throws SQLException {
+      long start = System.nanoTime();
+      List<T> results = new ArrayList<T>();
+      try{
+         if (tasks.size() == 1){
+            results.add(tasks.get(0).call());
+         }
+         else{
+            for (Future<T> result : this._pool.invokeAll(tasks))
+               results.add(result.get());
+         }
+      }catch (ExecutionException e){
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw new SQLException(e.getCause().toString());
+      }catch (SQLException e){
+         throw e;
+      }catch (Exception e){
+         throw new SQLException(e.toString());
+      }
+      Metrics.time("shard.scatter", System.nanoTime() - start);
+      return results;
+   }
+
+   /**
+    * Moves every user stored on the wrong shard, after shards were added,
+    * to the shard they hash to now.  Users of the drained nodes, shards
+    * being removed, are all moved off them.  Rows are copied before they
+    * are deleted and copies skip rows already present, so an interrupted
+    * rebalance can simply be run again.
+    *
+    * The application must be stopped while this runs: a write to a user's
+    * rows made between their copy and their delete is lost.
+    *
+    * @return the number of users moved
+    */
+   public int rebalance (List<ProfNetwork> drained) throws SQLException {
+      List<ProfNetwork> sources = new ArrayList<ProfNetwork>(Arrays.asList(this._nodes));
+      sources.addAll(drained);
+      int moved = 0;
+      for (int s = 0; s < sources.size(); ++s){
+         ProfNetwork source = sources.get(s);
+         for (List<String> row : source.executeQueryAndReturnResult("SELECT userId FROM USR")){
+            String user = row.get(0);
+            int owner = shardOf(user, this._nodes.length);
+            if (owner == s)
+               continue;
+            move(user, source, s < this._nodes.length ? s : -1, this._nodes[owner]);
+            ++moved;
+            Metrics.increment("shard.moved");
+         }
+      }
+      return moved;
+   }
+
+   /**
+    * Makes both copies of every CONNECTION_USR row that spans two shards
+    * agree, after a two-shard write committed on one of them only.  A
+    * missing copy is inserted, and a request still pending on one side
+    * takes the answer recorded on the other, as a status only ever changes
+    * from 0.
+    *
+    * @return the number of copies repaired
+    */
+   public int repairConnections () throws SQLException {
+      int n = this._nodes.length;
+      // the rows of each shard whose other end lives on another shard, by
+      // that shard, keyed by userId and connectionId
+      List<List<Map<String, List<String>>>> spans = new ArrayList<List<Map<String, List<String>>>>();
+      for (int s = 0; s < n; ++s){
+         List<Map<String, List<String>>> byPeer = new ArrayList<Map<String, List<String>>>();
+         for (int p = 0; p < n; ++p)
+            byPeer.add(new HashMap<String, List<String>>());
+         for (List<String> row : this._nodes[s].executeQueryAndReturnResult("SELECT userId, connectionId, status FROM CONNECTION_USR")){
+            int a = shardOf(row.get(0), n), b = shardOf(row.get(1), n);
+            if (a == b || a != s && b != s)
+               continue;
+            byPeer.get(a == s ? b : a).put(row.get(0) + '\u0000' + row.get(1), row);
+         }
+         spans.add(byPeer);
+      }
+
+      int repaired = 0;
+      for (int s = 0; s < n; ++s){
+         List<String> fixes = new ArrayList<String>();
+         for (int p = 0; p < n; ++p){
+            if (p == s)
+               continue;
+            Map<String, List<String>> mine = spans.get(s).get(p), theirs = spans.get(p).get(s);
+            for (Map.Entry<String, List<String>> row : theirs.entrySet()){
+               List<String> copy = mine.get(row.getKey()), r = row.getValue();
+               if (copy == null)
+                  fixes.add(String.format("INSERT INTO CONNECTION_USR(userId, connectionId, status) VALUES (%s, %s, %s)",
+                                          literal(r.get(0)), literal(r.get(1)), r.get(2)));
+               else if (copy.get(2).equals("0") && !r.get(2).equals("0"))
+                  fixes.add(String.format("UPDATE CONNECTION_USR SET status = %s WHERE userId = %s AND connectionId = %s AND status = 0",
+                                          r.get(2), literal(r.get(0)), literal(r.get(1))));
+            }
+         }
+         if (fixes.isEmpty())
+            continue;
+         ProfNetwork node = this._nodes[s];
+         node.beginTransaction();
+         try{
+            node.executeBatch(fixes);
+            node.commit();
+         }catch (SQLException e){
+            rollbackQuietly(node);
+            throw e;
+         }
+         repaired += fixes.size();
+         Metrics.add("shard.repaired", fixes.size());
+      }
+      return repaired;
+   }
+
+   /*
+    * Copies a user's rows to their owner, then deletes them from the source
+    * shard, or from the drained node when sourceShard is -1.
+    **/
+   private void move (String user, ProfNetwork source, int sourceShard, ProfNetwork owner) throws SQLException {
+      String u = literal(user);
+      List<String> copies = new ArrayList<String>();
+      copy(source, "USR", "userId, password, email, name, dateOfBirth, version", 1, "userId = " + u, copies);
+      copy(source, "WORK_EXPR", "userId, company, role, startDate, location, endDate", 4, "userId = " + u, copies);
+      copy(source, "EDUCATIONAL_DETAILS", "userId, major, degree, instituitionName, startdate, enddate", 3, "userId = " + u, copies);
+      // copying accepted rows lets sync_friends rebuild FRIENDS on the owner
+      List<List<String>> connections = copy(source, "CONNECTION_USR", "userId, connectionId, status", 2,
+                                            "userId = " + u + " OR connectionId = " + u, copies);
+      // moved messages get new msgIds from the owner's sequence, in their
+      // old order, so the inbox stays in msgId order for inboxSince
+      copy(source, "MESSAGE", "receiverId, senderId, sendTime, contents, deleteStatus, status", 4,
+           "receiverId = " + u + " ORDER BY msgId", copies);
+      owner.beginTransaction();
+      try{
+         owner.executeBatch(copies);
+         owner.commit();
+      }catch (SQLException e){
+         owner.rollback();
+         throw e;
+      }
+
+      List<String> deletes = new ArrayList<String>();
+      deletes.add("DELETE FROM MESSAGE WHERE receiverId = " + u);
+      for (List<String> c : connections){
+         // keep the copy the other user still needs on this shard
+         String other = c.get(0).equals(user) ? c.get(1) : c.get(0);
+         if (shardOf(other, this._nodes.length) != sourceShard)
+            deletes.add(String.format("DELETE FROM CONNECTION_USR WHERE userId = %s AND connectionId = %s", literal(c.get(0)), literal(c.get(1))));
+      }
+      deletes.add("DELETE FROM FRIENDS WHERE userId = " + u);
+      deletes.add("DELETE FROM WORK_EXPR WHERE userId = " + u);
+      deletes.add("DELETE FROM EDUCATIONAL_DETAILS WHERE userId = " + u);
+      deletes.add("DELETE FROM USR WHERE userId = " + u);
+      source.beginTransaction();
+      try{
+         source.executeBatch(deletes);
+         source.commit();
+      }catch (SQLException e){
+         source.rollback();
+         throw e;
+      }
+   }
+
+   /*
+    * Adds an INSERT for every matching row of a table that the target does
+    * not have yet, judged by its first keyColumns columns.  where may end
+    * with an ORDER BY, the INSERTs follow it.
+    * @return the rows read
+    **/
+   private static List<List<String>> copy (ProfNetwork source, String table, String columns, int keyColumns, String where, List<String> inserts) throws SQLException {
+      String[] names = columns.split(",\\s*");
+      List<List<String>> rows = source.executeQueryAndReturnResult(
+         String.format("SELECT %s FROM %s WHERE %s", columns, table, where));
+      for (List<String> row : rows){
+         StringBuilder values = new StringBuilder(), key = new StringBuilder();
+         for (int i = 0; i < names.length; ++i){
+            if (i > 0)
+               values.append(", ");
+            values.append(literal(row.get(i)));
+            if (i < keyColumns){
+               if (i > 0)
+                  key.append(" AND ");
+               key.append(names[i]).append(" = ").append(literal(row.get(i)));
+            }
+         }
+         inserts.add(String.format("INSERT INTO %s(%s) SELECT %s WHERE NOT EXISTS (SELECT 1 FROM %s WHERE %s)",
+                                   table, columns, values, table, key));
+      }
+      return rows;
+   }
+
+   /*
+    * @return the logins as sorted ids, interning new logins into ids
+    **/
+   private static int[] sortedIds (List<String> logins, Map<String, Integer> ids) {
+      int[] sorted = new int[logins.size()];
+      for (int i = 0; i < sorted.length; ++i){
+         Integer id = ids.get(logins.get(i));
+         if (id == null){
+            id = ids.size();
+            ids.put(logins.get(i), id);
+         }
+         sorted[i] = id;
+      }
+      Arrays.sort(sorted);
+      return sorted;
+   }
+
+   private static String literal (String value) {
+      return value == null ? "NULL" : "'" + value.replace("'", "''") + "'";
+   }
+
+}//end ShardedStore
@@ -0,0 +1,114 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * Helpers for neighbor lists kept as sorted arrays of interned user ids.
+ * The arrays are never modified in place, every change returns a copy so
+ * readers can use them without locking.
+ *
+ */
+public class SortedIds {
+
+   public static final int[] EMPTY = new int[0];
+
+   private SortedIds () {
+   }
+
+   /**
+    * @return a copy of ids with id added, or ids itself when already present
+    */
+   public static int[] insert (int[] ids, int id) {
+      int pos = Arrays.binarySearch(ids, id);
+      if (pos >= 0)
+         return ids;
+      pos = -pos - 1;
+      int[] copy = new int[ids.length + 1];
+      System.arraycopy(ids, 0, copy, 0, pos);
+      copy[pos] = id;
+      System.arraycopy(ids, pos, copy, pos + 1, ids.length - pos);
+      return copy;
+   }
+
+   /**
+    * @return a copy of ids without id, or ids itself when not present
+    */
+   public static int[] remove (int[] ids, int id) {
+      int pos = Arrays.binarySearch(ids, id);
+      if (pos < 0)
+         return ids;
+      int[] copy = new int[ids.length - 1];
+      System.arraycopy(ids, 0, copy, 0, pos);
+      System.arraycopy(ids, pos + 1, copy, pos, ids.length - pos - 1);
+      return copy;
+   }
+
+   /**
+    * Returns the ids present in both arrays.  Every id of the shorter array
+    * is looked up in the longer one by galloping forward from the previous
+    * match, which costs O(m log(n/m)) when the sizes differ a lot and stays
+    * linear when they are alike.
+    *
+    * @param out receives the common ids, must hold min(a.length, b.length)
+    * @return the number of common ids written to out
+    */
+   public static int intersect (int[] a, int[] b, int[] out) {
+      return intersect(a, 0, a.length, b, 0, b.length, out);
+   }
+
+   /**
+    * Like intersect, for the sorted ranges a[aFrom..aTo) and b[bFrom..bTo),
+    * e.g. two neighbor lists of one adjacency array.
+    */
+   public static int intersect (int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo, int[] out) {
+      if (aTo - aFrom > bTo - bFrom){
+         int[] swap = a; a = b; b = swap;
+         int from = aFrom; aFrom = bFrom; bFrom = from;
+         int to = aTo; aTo = bTo; bTo = to;
+      }
+      int n = 0, lo = bFrom;
+      for (int i = aFrom; i < aTo && lo < bTo; ++i){
+         int x = a[i];
+         // gallop until b[hi] >= x, then binary search b[lo..hi]
+         int step = 1, hi = lo;
+         while (hi < bTo && b[hi] < x){
+            lo = hi + 1;
+            hi += step;
+            step <<= 1;
+         }
+         int pos = Arrays.binarySearch(b, lo, Math.min(hi + 1, bTo), x);
+         if (pos >= 0){
+            if (out != null)
+               out[n] = x;
+            ++n;
+            lo = pos + 1;
+         }
+         else
+            lo = -pos - 1;
+      }
+      return n;
+   }
+
+   /**
+    * @return the number of ids present in both arrays
+    */
+   public static int intersectCount (int[] a, int[] b) {
+      return intersect(a, b, null);
+   }
+
+   public static int intersectCount (int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+      return intersect(a, aFrom, aTo, b, bFrom, bTo, null);
+   }
+
+}//end SortedIds
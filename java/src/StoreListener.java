@@ -0,0 +1,31 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * Receives the events a ProfStore raises for a watched user.  Callbacks may
+ * arrive on a background thread and must return quickly.
+ *
+ */
+public interface StoreListener {
+
+   /**
+    * A message was sent to the user.
+    */
+   public void messageReceived (String user);
+
+   /**
+    * Someone sent the user a connection request.
+    */
+   public void requestReceived (String user);
+
+}//end StoreListener
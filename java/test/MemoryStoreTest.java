@@ -0,0 +1,155 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that a journaled MemoryStore comes back the same after a restart,
+ * and that a profile edit cut short in the journal is dropped whole.
+ *
+ */
+public class MemoryStoreTest {
+
+   public static void main (String[] args) throws Exception {
+      replaysEverything();
+      dropsUnfinishedEdit();
+      pagesConcurrentConversation();
+      System.out.println("MemoryStoreTest passed");
+   }
+
+   static void replaysEverything () throws Exception {
+      File journal = File.createTempFile("profnetwork", ".journal");
+      journal.delete();
+      try{
+         MemoryStore store = new MemoryStore(journal, false);
+         store.createUser("ann", "pw", "ann@x.org");
+         store.createUser("bob", "pw", "bob@x.org");
+         store.createUser("cat", "pw", "cat@x.org");
+         store.sendRequest("ann", "bob");
+         store.acceptRequest("bob", "ann");
+         store.sendRequest("cat", "bob");
+         store.sendMessage("ann", "bob", "hello\twith a tab\nand a line");
+         store.sendMessage("cat", "bob", "second");
+         store.deleteMessage("bob", "1");
+         store.deleteSentMessage("cat", "bob", "2");
+         ProfileEdit edit = new ProfileEdit("ann", store.profileVersion("ann"));
+         edit.setName("Ann");
+         edit.addWork("Acme", "dev", "Riverside", "2014-01-01", null);
+         store.commitProfile(edit);
+         store.close();
+
+         MemoryStore replayed = new MemoryStore(journal, false);
+         check(replayed.checkCredentials("ann", "pw"), "user replayed");
+         check(replayed.getConnections("ann").equals(Arrays.asList("bob")), "connection replayed");
+         check(replayed.pendingRequests("bob").equals(Arrays.asList("cat")), "request replayed");
+         List<List<String>> inbox = replayed.inbox("bob");
+         check(inbox.size() == 2, "messages replayed");
+         check(inbox.get(0).get(2).equals("hello\twith a tab\nand a line"), "contents unescaped");
+         check(inbox.get(0).get(3).equals("1"), "delete replayed");
+         check(replayed.conversation("cat", "bob", null, 0, 10).isEmpty(), "sender delete replayed");
+         check(replayed.conversation("bob", "cat", null, 0, 10).size() == 1, "receiver keeps the message");
+         check(replayed.profileVersion("ann") == 1, "profile version replayed");
+         check(replayed.workHistory("ann").size() == 1, "work replayed");
+
+         // new messages continue the replayed sequence
+         replayed.sendMessage("bob", "ann", "third");
+         check(replayed.inbox("ann").get(0).get(0).equals("3"), "msgId sequence continues");
+         replayed.close();
+      }finally{
+         journal.delete();
+      }
+   }
+
+   static void dropsUnfinishedEdit () throws Exception {
+      File journal = File.createTempFile("profnetwork", ".journal");
+      journal.delete();
+      try{
+         MemoryStore store = new MemoryStore(journal, false);
+         store.createUser("ann", "pw", "ann@x.org");
+         store.close();
+
+         // an edit whose C record never made it to disk
+         append(journal, "P\tann\tname\tAnn\nW\tann\tAcme\tdev\tRiverside\t2014-01-01\t\\N\n");
+         MemoryStore replayed = new MemoryStore(journal, false);
+         check(replayed.profileVersion("ann") == 0, "unfinished edit not counted");
+         check(replayed.workHistory("ann").isEmpty(), "unfinished edit dropped");
+         replayed.close();
+      }finally{
+         journal.delete();
+      }
+   }
+
+   static void pagesConcurrentConversation () throws Exception {
+      final MemoryStore store = new MemoryStore();
+      store.createUser("ann", "pw", "ann@x.org");
+      store.createUser("bob", "pw", "bob@x.org");
+      final int each = 2000;
+      Thread[] senders = new Thread[4];
+      for (int t = 0; t < senders.length; ++t){
+         final String from = t % 2 == 0 ? "ann" : "bob", to = t % 2 == 0 ? "bob" : "ann";
+         senders[t] = new Thread() {
+            public void run () {
+               try{
+                  for (int i = 0; i < each; ++i)
+                     store.sendMessage(from, to, "hi " + i);
+               }catch (SQLException e){
+                  throw new RuntimeException(e);
+               }
+            }
+         };
+         senders[t].start();
+      }
+      for (Thread sender : senders)
+         sender.join();
+
+      // page backwards the way the conversation view does
+      Set<Integer> seen = new HashSet<Integer>();
+      int last = Integer.MAX_VALUE;
+      String beforeTime = null;
+      while (true){
+         List<List<String>> page = store.conversation("ann", "bob", beforeTime, last, 50);
+         if (page.isEmpty())
+            break;
+         for (List<String> record : page){
+            int msgId = Integer.parseInt(record.get(0));
+            check(msgId < last, "newest first");
+            check(seen.add(msgId), "no repeats");
+            last = msgId;
+            beforeTime = record.get(3);
+         }
+      }
+      check(seen.size() == each * senders.length, "every message paged");
+   }
+
+   private static void append (File file, String text) throws IOException {
+      FileOutputStream out = new FileOutputStream(file, true);
+      try{
+         out.write(text.getBytes("UTF-8"));
+      }finally{
+         out.close();
+      }
+   }
+
+   private static void check (boolean condition, String what) {
+      if (!condition)
+         throw new AssertionError(what);
+   }
+
+}//end MemoryStoreTest
@@ -0,0 +1,77 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Checks how QueryCache normalizes statements, finds their tables and
+ * evicts results when a table is written.
+ *
+ */
+public class QueryCacheTest {
+
+   public static void main (String[] args) {
+      normalizesOutsideLiterals();
+      findsTables();
+      invalidatesByTable();
+      System.out.println("QueryCacheTest passed");
+   }
+
+   static void normalizesOutsideLiterals () {
+      check(QueryCache.normalize("  SELECT *\n\tFROM   Usr  WHERE userId = 'Ann  B' ;; ")
+            .equals("select * from usr where userid = 'Ann  B'"), "normalize");
+      check(QueryCache.normalize("select 1").equals(QueryCache.normalize("SELECT   1;")), "same key");
+      check(!QueryCache.normalize("select 'A'").equals(QueryCache.normalize("select 'a'")), "literals keep case");
+   }
+
+   static void findsTables () {
+      String sql = QueryCache.normalize(
+         "SELECT m.* FROM MESSAGE m JOIN usr u ON u.userId = m.senderId WHERE contents = 'from friends'");
+      check(QueryCache.tables(sql).equals(new HashSet<String>(Arrays.asList("message", "usr"))), "tables");
+      check(QueryCache.tables(QueryCache.normalize("INSERT INTO connection_usr VALUES ('a','b',0)"))
+            .equals(new HashSet<String>(Arrays.asList("connection_usr"))), "insert table");
+   }
+
+   static void invalidatesByTable () {
+      QueryCache cache = new QueryCache(10, 60000);
+      cache.derive("connection_usr", "friends");
+      String friends = QueryCache.normalize("SELECT friendId FROM friends WHERE userId = 'ann'");
+      String users = QueryCache.normalize("SELECT name FROM usr WHERE userId = 'ann'");
+      cache.put(friends, rows("bob"));
+      cache.put(users, rows("Ann"));
+      check(cache.get(friends) != null && cache.get(users) != null, "cached");
+
+      cache.invalidate("UPDATE CONNECTION_USR SET status = 1 WHERE userId = 'bob'");
+      check(cache.get(friends) == null, "derived table evicted");
+      check(cache.get(users) != null, "other table kept");
+
+      // results are copies, changing one does not change the cache
+      cache.get(users).get(0).set(0, "changed");
+      check(cache.get(users).get(0).get(0).equals("Ann"), "copies");
+   }
+
+   private static List<List<String>> rows (String value) {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      rows.add(new ArrayList<String>(Arrays.asList(value)));
+      return rows;
+   }
+
+   private static void check (boolean condition, String what) {
+      if (!condition)
+         throw new AssertionError(what);
+   }
+
+}//end QueryCacheTest
@@ -0,0 +1,69 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that a SessionCache shows a message whose transaction committed
+ * after one holding a higher msgid.
+ *
+ */
+public class SessionCacheTest {
+
+   public static void main (String[] args) throws Exception {
+      showsLateCommit();
+      System.out.println("SessionCacheTest passed");
+   }
+
+   static void showsLateCommit () throws Exception {
+      // a store holding only the committed messages, in msgid order
+      final List<List<String>> committed = new ArrayList<List<String>>();
+      ProfStore store = (ProfStore) Proxy.newProxyInstance(
+         ProfStore.class.getClassLoader(), new Class<?>[] { ProfStore.class },
+         new InvocationHandler() {
+            public Object invoke (Object proxy, Method method, Object[] args) {
+               if (method.getName().equals("inbox"))
+                  return new ArrayList<List<String>>(committed);
+               return null;
+            }
+         });
+      SessionCache session = new SessionCache(store, "bob");
+      check(session.inbox().isEmpty(), "empty inbox");
+
+      // msgid 2 commits first, msgid 1 only after the inbox was read
+      committed.add(message("2", "cat"));
+      session.messageReceived("bob");
+      check(session.inbox().size() == 1, "first commit shown");
+      committed.add(0, message("1", "ann"));
+      session.messageReceived("bob");
+      List<List<String>> inbox = session.inbox();
+      check(inbox.size() == 2, "late commit shown");
+      check(inbox.get(0).get(0).equals("1") && inbox.get(1).get(0).equals("2"), "msgid order");
+      check(session.newMessages() == 0, "counter reset");
+   }
+
+   private static List<String> message (String msgId, String sender) {
+      return new ArrayList<String>(Arrays.asList(msgId, sender, "hi", "0"));
+   }
+
+   private static void check (boolean condition, String what) {
+      if (!condition)
+         throw new AssertionError(what);
+   }
+
+}//end SessionCacheTest
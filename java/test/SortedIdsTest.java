@@ -0,0 +1,95 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Checks SortedIds against plain sets, including arrays of very different
+ * sizes where intersect gallops.
+ *
+ */
+public class SortedIdsTest {
+
+   public static void main (String[] args) {
+      insertAndRemove();
+      intersectMatchesSets();
+      intersectRanges();
+      System.out.println("SortedIdsTest passed");
+   }
+
+   static void insertAndRemove () {
+      int[] ids = SortedIds.EMPTY;
+      ids = SortedIds.insert(ids, 5);
+      ids = SortedIds.insert(ids, 1);
+      ids = SortedIds.insert(ids, 9);
+      check(Arrays.equals(ids, new int[]{ 1, 5, 9 }), "insert keeps order");
+      check(SortedIds.insert(ids, 5) == ids, "insert of a present id returns the array");
+      int[] removed = SortedIds.remove(ids, 5);
+      check(Arrays.equals(removed, new int[]{ 1, 9 }), "remove");
+      check(Arrays.equals(ids, new int[]{ 1, 5, 9 }), "remove copies");
+      check(SortedIds.remove(ids, 7) == ids, "remove of a missing id returns the array");
+   }
+
+   static void intersectMatchesSets () {
+      Random random = new Random(166);
+      int[][] sizes = { { 0, 10 }, { 1, 1 }, { 10, 10 }, { 3, 5000 }, { 5000, 3 }, { 700, 900 } };
+      for (int[] size : sizes){
+         for (int round = 0; round < 20; ++round){
+            int[] a = randomIds(random, size[0]), b = randomIds(random, size[1]);
+            TreeSet<Integer> expected = new TreeSet<Integer>();
+            for (int x : a)
+               expected.add(x);
+            TreeSet<Integer> inB = new TreeSet<Integer>();
+            for (int x : b)
+               inB.add(x);
+            expected.retainAll(inB);
+
+            int[] out = new int[Math.min(a.length, b.length)];
+            int n = SortedIds.intersect(a, b, out);
+            check(n == expected.size(), "intersect size");
+            int i = 0;
+            for (int x : expected)
+               check(out[i++] == x, "intersect ids");
+            check(SortedIds.intersectCount(a, b) == n, "intersectCount");
+         }
+      }
+   }
+
+   static void intersectRanges () {
+      // two neighbor lists of one adjacency array
+      int[] adjacency = { 1, 3, 5, 7, 2, 3, 7, 8 };
+      int[] out = new int[4];
+      int n = SortedIds.intersect(adjacency, 0, 4, adjacency, 4, 8, out);
+      check(n == 2 && out[0] == 3 && out[1] == 7, "intersect ranges");
+      check(SortedIds.intersectCount(adjacency, 1, 3, adjacency, 4, 6) == 1, "intersectCount ranges");
+   }
+
+   private static int[] randomIds (Random random, int n) {
+      TreeSet<Integer> ids = new TreeSet<Integer>();
+      while (ids.size() < n)
+         ids.add(random.nextInt(n * 4 + 1));
+      int[] result = new int[n];
+      int i = 0;
+      for (int x : ids)
+         result[i++] = x;
+      return result;
+   }
+
+   private static void check (boolean condition, String what) {
+      if (!condition)
+         throw new AssertionError(what);
+   }
+
+}//end SortedIdsTest
@@ -0,0 +1,59 @@
+-- MESSAGE.status ('0'/'1' in a varchar(30)) and MESSAGE.deleteStatus (a
+-- nullable integer) become smallint codes: 0 kept, 1 deleted by that side.
+--
+-- The codes are written to new columns, by a trigger for new rows and in
+-- batches for old ones, and swapped in under a short lock at the end so
+-- MESSAGE stays usable during the whole migration.  The lock is only short
+-- on PostgreSQL 12 and newer, see the last step.
+
+-- step
+ALTER TABLE MESSAGE ADD COLUMN IF NOT EXISTS status_code smallint;
+ALTER TABLE MESSAGE ADD COLUMN IF NOT EXISTS delete_code smallint;
+
+CREATE OR REPLACE FUNCTION message_status_codes() RETURNS trigger AS $$
+BEGIN
+	NEW.status_code := NEW.status::smallint;
+	NEW.delete_code := coalesce(NEW.deleteStatus, 0);
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS message_status_codes ON MESSAGE;
+CREATE TRIGGER message_status_codes
+	BEFORE INSERT OR UPDATE ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE message_status_codes();
+
+-- step batch MESSAGE msgId 10000
+UPDATE MESSAGE SET status_code = status::smallint, delete_code = coalesce(deleteStatus, 0)
+	WHERE {window} AND (status_code IS NULL OR delete_code IS NULL);
+
+-- step
+-- checked without blocking writes, then lets SET NOT NULL skip its scan
+-- on PostgreSQL 12 and newer
+ALTER TABLE MESSAGE ADD CONSTRAINT message_status_check
+	CHECK (status_code IS NOT NULL AND status_code IN (0, 1) AND delete_code IS NOT NULL AND delete_code IN (0, 1)) NOT VALID;
+
+-- step
+ALTER TABLE MESSAGE VALIDATE CONSTRAINT message_status_check;
+
+-- step
+-- rewrites MESSAGE_ARCHIVE, which only the archiver writes
+ALTER TABLE MESSAGE_ARCHIVE
+	ALTER COLUMN status TYPE smallint USING status::smallint,
+	ALTER COLUMN deleteStatus TYPE smallint USING coalesce(deleteStatus, 0);
+
+-- step
+-- PostgreSQL 10 and 11 ignore the check constraint here and scan all of
+-- MESSAGE for SET NOT NULL while holding the lock, so run this migration
+-- while the application is idle on those versions
+LOCK TABLE MESSAGE IN ACCESS EXCLUSIVE MODE;
+DROP TRIGGER message_status_codes ON MESSAGE;
+DROP FUNCTION message_status_codes();
+ALTER TABLE MESSAGE DROP COLUMN status;
+ALTER TABLE MESSAGE DROP COLUMN deleteStatus;
+ALTER TABLE MESSAGE RENAME COLUMN status_code TO status;
+ALTER TABLE MESSAGE RENAME COLUMN delete_code TO deleteStatus;
+ALTER TABLE MESSAGE ALTER COLUMN status SET DEFAULT 0;
+ALTER TABLE MESSAGE ALTER COLUMN deleteStatus SET DEFAULT 0;
+ALTER TABLE MESSAGE ALTER COLUMN status SET NOT NULL;
+ALTER TABLE MESSAGE ALTER COLUMN deleteStatus SET NOT NULL;
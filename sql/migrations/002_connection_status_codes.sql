@@ -0,0 +1,38 @@
+-- CONNECTION_USR.status ('0'/'1'/'2' in a varchar(30)) becomes a smallint
+-- code: 0 requested, 1 accepted, 2 denied.  Same steps as 001.
+
+-- step
+ALTER TABLE CONNECTION_USR ADD COLUMN IF NOT EXISTS status_code smallint;
+
+CREATE OR REPLACE FUNCTION connection_status_codes() RETURNS trigger AS $$
+BEGIN
+	NEW.status_code := NEW.status::smallint;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS connection_status_codes ON CONNECTION_USR;
+CREATE TRIGGER connection_status_codes
+	BEFORE INSERT OR UPDATE ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE connection_status_codes();
+
+-- step batch CONNECTION_USR userId 10000
+UPDATE CONNECTION_USR SET status_code = status::smallint
+	WHERE {window} AND status_code IS NULL;
+
+-- step
+ALTER TABLE CONNECTION_USR ADD CONSTRAINT connection_usr_status_check
+	CHECK (status_code IS NOT NULL AND status_code IN (0, 1, 2)) NOT VALID;
+
+-- step
+ALTER TABLE CONNECTION_USR VALIDATE CONSTRAINT connection_usr_status_check;
+
+-- step
+-- sync_friends reads the column by name, so it follows the rename
+LOCK TABLE CONNECTION_USR IN ACCESS EXCLUSIVE MODE;
+DROP TRIGGER connection_status_codes ON CONNECTION_USR;
+DROP FUNCTION connection_status_codes();
+ALTER TABLE CONNECTION_USR DROP COLUMN status;
+ALTER TABLE CONNECTION_USR RENAME COLUMN status_code TO status;
+ALTER TABLE CONNECTION_USR ALTER COLUMN status SET DEFAULT 0;
+ALTER TABLE CONNECTION_USR ALTER COLUMN status SET NOT NULL;
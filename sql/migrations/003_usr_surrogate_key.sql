@@ -0,0 +1,23 @@
+-- Optional: gives every user an integer uid next to the varchar(10)
+-- login.  userId stays the primary key and the target of every foreign
+-- key; uid is only added, filled and indexed so tables can move to it
+-- later.  Stop before this migration to skip it.
+
+-- step
+CREATE SEQUENCE IF NOT EXISTS usr_uid_seq;
+ALTER TABLE USR ADD COLUMN IF NOT EXISTS uid integer;
+-- set apart from ADD COLUMN, which would rewrite USR to fill the default
+ALTER TABLE USR ALTER COLUMN uid SET DEFAULT nextval('usr_uid_seq');
+ALTER SEQUENCE usr_uid_seq OWNED BY USR.uid;
+
+-- step batch USR userId 10000
+UPDATE USR SET uid = nextval('usr_uid_seq') WHERE {window} AND uid IS NULL;
+
+-- step autocommit
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS usr_uid_idx ON USR(uid);
+
+-- step
+ALTER TABLE USR ADD CONSTRAINT usr_uid_check CHECK (uid IS NOT NULL) NOT VALID;
+
+-- step
+ALTER TABLE USR VALIDATE CONSTRAINT usr_uid_check;
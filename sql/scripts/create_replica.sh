@@ -0,0 +1,10 @@
+#!/bin/bash
+# Creates a streaming replica of the cluster on $PGPORT in $PGDATA/replica
+# and starts it on the given port, $PGPORT + 100 by default.
+#   create_replica.sh [port]
+PORT=${1:-$(( PGPORT + 100 ))}
+DATA=$PGDATA/replica
+pg_basebackup -p $PGPORT -D $DATA -R -X stream
+mkdir -p $DATA/logs
+pg_ctl -D $DATA -o "-p $PORT" -l $DATA/logs/logfile -w start
+echo "Run with -Dprofnetwork.replica.port=$PORT"
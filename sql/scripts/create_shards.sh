@@ -0,0 +1,25 @@
+#!/bin/bash
+# Creates N PostgreSQL clusters on this host, one per shard, listening on
+# consecutive ports from $PGPORT, each holding a $DB_NAME shard database.
+#   create_shards.sh <number of shards>
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+SHARDS=${1:-4}
+# upper bound on the number of shards, fixes the msgId stride
+STRIDE=64
+PORTS=""
+for (( i=0; i<$SHARDS; i++ )); do
+  PORT=$(( PGPORT + i ))
+  DATA=$PGDATA/shard$i
+  if [ ! -d $DATA ]; then
+    initdb -D $DATA
+    mkdir -p $DATA/logs
+  fi
+  pg_ctl -D $DATA -o "-p $PORT" -l $DATA/logs/logfile -w start
+  createdb -p $PORT $DB_NAME
+  psql -p $PORT $DB_NAME < $DIR/../src/create_tables.sql
+  psql -p $PORT $DB_NAME < $DIR/../src/create_index.sql
+  psql -p $PORT $DB_NAME < $DIR/../src/create_triggers.sql
+  psql -p $PORT -v first=$(( i + 1 )) -v stride=$STRIDE $DB_NAME < $DIR/../src/shard_tables.sql
+  PORTS=$PORTS${PORTS:+,}$PORT
+done
+echo "Run with -Dprofnetwork.shards=$PORTS"
@@ -0,0 +1,11 @@
+-- inbox reads and the incremental msgid > N refresh
+CREATE INDEX message_receiver_idx ON MESSAGE(receiverId, msgId);
+
+-- message search: one GIN index per side so a search is scoped to the
+-- user inside the index, whatever the size of MESSAGE
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+CREATE INDEX message_receiver_search_idx ON MESSAGE USING gin(receiverId, contents_tsv);
+CREATE INDEX message_sender_search_idx ON MESSAGE USING gin(senderId, contents_tsv);
+
+-- two-party conversations, paged backwards by (sendTime, msgId)
+CREATE INDEX message_conversation_idx ON MESSAGE(least(senderId, receiverId), greatest(senderId, receiverId), sendTime, msgId);
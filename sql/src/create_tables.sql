@@ -1,3 +1,11 @@
+DROP TABLE SCHEMA_VERSION;
+DROP TABLE GRAPH_ISOLATED;
+DROP TABLE GRAPH_COMPONENT_SIZES;
+DROP TABLE GRAPH_DEGREES;
+DROP TABLE GRAPH_STATS;
+DROP TABLE ARCHIVE_CHECKPOINT;
+DROP TABLE MESSAGE_ARCHIVE;
+DROP TABLE FRIENDS;
 DROP TABLE WORK_EXPR;
 DROP TABLE EDUCATIONAL_DETAILS;
 DROP TABLE MESSAGE;
@@ -11,6 +19,7 @@ CREATE TABLE USR(
 	email text NOT NULL,
 	name varchar(50),
 	dateOfBirth date,
+	version integer NOT NULL DEFAULT 0,
 	Primary Key(userId));
 
 	CREATE TABLE WORK_EXPR(
@@ -41,8 +50,10 @@ CREATE TABLE USR(
 		receiverId varchar(10) NOT NULL,
 		contents varchar(500) NOT NULL,
 		sendTime timestamp default current_timestamp,
-		deleteStatus integer,
-		status varchar(30) NOT NULL,
+		deleteStatus smallint NOT NULL DEFAULT 0,
+		status smallint NOT NULL DEFAULT 0,
+		contents_tsv tsvector,
+		CONSTRAINT message_status_check CHECK (status IN (0, 1) AND deleteStatus IN (0, 1)),
 		PRIMARY KEY(msgId),
 		FOREIGN KEY (senderId) REFERENCES USR (userId),
 		FOREIGN KEY (receiverId) REFERENCES USR (userId)
@@ -51,8 +62,97 @@ CREATE TABLE USR(
 	CREATE TABLE CONNECTION_USR(
 		userId varchar(10) NOT NULL,
 		connectionId varchar(10) NOT NULL,
-		status varchar(30) NOT NULL,
+		status smallint NOT NULL DEFAULT 0,
+		CONSTRAINT connection_usr_status_check CHECK (status IN (0, 1, 2)),
 		PRIMARY KEY(userId,connectionId),
 		FOREIGN KEY (userId) REFERENCES USR(userId),
 		FOREIGN KEY (connectionId) REFERENCES USR(userId)
 	);
+
+	-- Accepted connections stored in both orientations, maintained by the
+	-- triggers in create_triggers.sql.  Never written by the application.
+	CREATE TABLE FRIENDS(
+		userId varchar(10) NOT NULL,
+		friendId varchar(10) NOT NULL,
+		PRIMARY KEY(userId,friendId),
+		FOREIGN KEY (userId) REFERENCES USR(userId),
+		FOREIGN KEY (friendId) REFERENCES USR(userId)
+	);
+
+	-- Messages moved out of MESSAGE by the background archiver.
+	CREATE TABLE MESSAGE_ARCHIVE(
+		msgId integer NOT NULL,
+		senderId varchar(10) NOT NULL,
+		receiverId varchar(10) NOT NULL,
+		contents varchar(500) NOT NULL,
+		sendTime timestamp,
+		deleteStatus smallint NOT NULL,
+		status smallint NOT NULL,
+		archivedAt timestamp default current_timestamp,
+		PRIMARY KEY(msgId)
+	);
+
+	-- Where each background job stopped.
+	CREATE TABLE ARCHIVE_CHECKPOINT(
+		job varchar(30) NOT NULL,
+		lastMsgId integer NOT NULL,
+		updatedAt timestamp,
+		PRIMARY KEY(job)
+	);
+
+	-- Results of the nightly graph job, one row per run.
+	CREATE TABLE GRAPH_STATS(
+		runId serial,
+		computedAt timestamp default current_timestamp,
+		users integer NOT NULL,
+		edges bigint NOT NULL,
+		components integer NOT NULL,
+		largestComponent integer NOT NULL,
+		isolated integer NOT NULL,
+		triangles bigint NOT NULL,
+		avgClustering double precision NOT NULL,
+		transitivity double precision NOT NULL,
+		PRIMARY KEY(runId)
+	);
+
+	-- How many users have each number of accepted connections.
+	CREATE TABLE GRAPH_DEGREES(
+		runId integer NOT NULL,
+		degree integer NOT NULL,
+		users integer NOT NULL,
+		PRIMARY KEY(runId,degree),
+		FOREIGN KEY (runId) REFERENCES GRAPH_STATS(runId) ON DELETE CASCADE
+	);
+
+	-- How many connected components have each number of users.
+	CREATE TABLE GRAPH_COMPONENT_SIZES(
+		runId integer NOT NULL,
+		size integer NOT NULL,
+		components integer NOT NULL,
+		PRIMARY KEY(runId,size),
+		FOREIGN KEY (runId) REFERENCES GRAPH_STATS(runId) ON DELETE CASCADE
+	);
+
+	-- Users without a single accepted connection.
+	CREATE TABLE GRAPH_ISOLATED(
+		runId integer NOT NULL,
+		userId varchar(10) NOT NULL,
+		PRIMARY KEY(runId,userId),
+		FOREIGN KEY (runId) REFERENCES GRAPH_STATS(runId) ON DELETE CASCADE
+	);
+
+	-- Migrations from sql/migrations applied by Migrator.  A row appears
+	-- when a migration starts and gets appliedAt once all its steps ran.
+	CREATE TABLE SCHEMA_VERSION(
+		version integer NOT NULL,
+		name varchar(100) NOT NULL,
+		stepsDone integer NOT NULL DEFAULT 0,
+		batchKey text,
+		appliedAt timestamp,
+		PRIMARY KEY(version)
+	);
+
+	-- this schema already has the status codes of the first migrations
+	INSERT INTO SCHEMA_VERSION(version, name, stepsDone, appliedAt) VALUES
+		(1, 'message_status_codes', 6, current_timestamp),
+		(2, 'connection_status_codes', 5, current_timestamp);
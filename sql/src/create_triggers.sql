@@ -0,0 +1,78 @@
+-- Keeps FRIENDS in step with the accepted rows of CONNECTION_USR so every
+-- neighbor lookup is a range scan on the FRIENDS primary key.
+CREATE OR REPLACE FUNCTION sync_friends() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' AND OLD.status = NEW.status THEN
+		RETURN NULL;
+	END IF;
+
+	IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.status = 1 THEN
+		-- keep the edge if the opposite request is also accepted
+		IF NOT EXISTS (SELECT 1 FROM CONNECTION_USR
+		               WHERE userId = OLD.connectionId AND connectionId = OLD.userId AND status = 1) THEN
+			DELETE FROM FRIENDS WHERE userId = OLD.userId AND friendId = OLD.connectionId;
+			DELETE FROM FRIENDS WHERE userId = OLD.connectionId AND friendId = OLD.userId;
+		END IF;
+	END IF;
+
+	IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.status = 1 THEN
+		INSERT INTO FRIENDS(userId, friendId)
+			SELECT NEW.userId, NEW.connectionId
+			WHERE NOT EXISTS (SELECT 1 FROM FRIENDS WHERE userId = NEW.userId AND friendId = NEW.connectionId);
+		INSERT INTO FRIENDS(userId, friendId)
+			SELECT NEW.connectionId, NEW.userId
+			WHERE NOT EXISTS (SELECT 1 FROM FRIENDS WHERE userId = NEW.connectionId AND friendId = NEW.userId);
+	END IF;
+
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS connection_usr_friends ON CONNECTION_USR;
+CREATE TRIGGER connection_usr_friends
+	AFTER INSERT OR UPDATE OR DELETE ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE sync_friends();
+
+-- Backfill for databases that already hold connections.
+INSERT INTO FRIENDS(userId, friendId)
+	SELECT userId, connectionId FROM CONNECTION_USR WHERE status = 1
+	UNION
+	SELECT connectionId, userId FROM CONNECTION_USR WHERE status = 1
+	EXCEPT
+	SELECT userId, friendId FROM FRIENDS;
+
+-- Wakes the sessions watching the receiver of a new message or request.
+-- The channel carries the login since NOTIFY payloads are not readable
+-- by the JDBC driver in java/lib.
+CREATE OR REPLACE FUNCTION notify_message() RETURNS trigger AS $$
+BEGIN
+	EXECUTE 'NOTIFY ' || quote_ident('msg_' || NEW.receiverId);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS message_notify ON MESSAGE;
+CREATE TRIGGER message_notify
+	AFTER INSERT ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE notify_message();
+
+CREATE OR REPLACE FUNCTION notify_request() RETURNS trigger AS $$
+BEGIN
+	EXECUTE 'NOTIFY ' || quote_ident('req_' || NEW.connectionId);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS connection_usr_notify ON CONNECTION_USR;
+CREATE TRIGGER connection_usr_notify
+	AFTER INSERT ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE notify_request();
+
+-- Keeps the search vector of a message current.
+DROP TRIGGER IF EXISTS message_search ON MESSAGE;
+CREATE TRIGGER message_search
+	BEFORE INSERT OR UPDATE OF contents ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE tsvector_update_trigger(contents_tsv, 'pg_catalog.english', contents);
+
+-- Backfill for databases that already hold messages.
+UPDATE MESSAGE SET contents_tsv = to_tsvector('pg_catalog.english', contents) WHERE contents_tsv IS NULL;
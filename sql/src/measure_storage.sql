@@ -0,0 +1,28 @@
+-- Storage and scan cost of the main tables, run with psql before and
+-- after sql/migrations to compare.  Literals are quoted so the queries
+-- work with both the varchar and the smallint status columns.
+
+-- heap, index and total size per table
+SELECT relname AS table,
+       pg_size_pretty(pg_relation_size(oid)) AS heap,
+       pg_size_pretty(pg_indexes_size(oid)) AS indexes,
+       pg_size_pretty(pg_total_relation_size(oid)) AS total
+	FROM pg_class
+	WHERE relname IN ('usr', 'connection_usr', 'friends', 'message', 'message_archive')
+	ORDER BY relname;
+
+-- size of every index on them
+SELECT indrelid::regclass AS table, indexrelid::regclass AS index,
+       pg_size_pretty(pg_relation_size(indexrelid)) AS size
+	FROM pg_index
+	WHERE indrelid IN ('usr'::regclass, 'connection_usr'::regclass, 'friends'::regclass, 'message'::regclass)
+	ORDER BY 1, 2;
+
+-- average bytes per value of the status columns
+SELECT avg(pg_column_size(status)) AS status, avg(pg_column_size(deleteStatus)) AS deleteStatus FROM MESSAGE;
+SELECT avg(pg_column_size(status)) AS status FROM CONNECTION_USR;
+
+-- full scans filtering on the codes
+EXPLAIN (ANALYZE, BUFFERS) SELECT count(*) FROM MESSAGE WHERE deleteStatus = '1' AND status = '1';
+EXPLAIN (ANALYZE, BUFFERS) SELECT count(*) FROM CONNECTION_USR WHERE status = '0';
+EXPLAIN (ANALYZE, BUFFERS) SELECT status, count(*) FROM CONNECTION_USR GROUP BY status;
@@ -0,0 +1,18 @@
+-- Turns a database built by create_tables.sql, create_index.sql and
+-- create_triggers.sql into one shard of a ShardedStore.  Run with
+--   psql -v first=<shard index + 1> -v stride=<most shards ever> -f shard_tables.sql
+--
+-- Rows of CONNECTION_USR, FRIENDS and MESSAGE name users living on other
+-- shards, so the foreign keys that would point at them are dropped.
+-- MESSAGE keeps the key on receiverId, the user it is stored with.
+
+ALTER TABLE CONNECTION_USR DROP CONSTRAINT IF EXISTS connection_usr_userid_fkey;
+ALTER TABLE CONNECTION_USR DROP CONSTRAINT IF EXISTS connection_usr_connectionid_fkey;
+ALTER TABLE FRIENDS DROP CONSTRAINT IF EXISTS friends_userid_fkey;
+ALTER TABLE FRIENDS DROP CONSTRAINT IF EXISTS friends_friendid_fkey;
+ALTER TABLE MESSAGE DROP CONSTRAINT IF EXISTS message_senderid_fkey;
+
+-- msgIds stay unique across shards, shard i hands out i + 1, i + 1 + stride,
+-- ...  Rebalancing renumbers the messages it moves from the new shard's
+-- sequence, so every user's inbox stays in msgId order.
+ALTER SEQUENCE message_msgid_seq INCREMENT BY :stride RESTART WITH :first;